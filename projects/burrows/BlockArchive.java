@@ -0,0 +1,197 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file of BurrowsCompressor frames followed by an index trailer, so any byte range can be
+ * restored by decoding only the blocks that hold it: the cost of read() depends on the
+ * block size, not on the size of the archive.
+ * Layout: [frame 0]...[frame n-1][trailer][footer], where the trailer has, for every block,
+ * [long uncompressed offset][long compressed offset] and the footer is
+ * [int blocks][long uncompressed length][long trailer offset][int MAGIC], all big-endian.
+ */
+public class BlockArchive implements Closeable {
+
+    public static final int MAGIC = 0x42575449;
+
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    private static final int FOOTER_BYTES = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    private final FileChannel in;
+
+    /** start[b] is the uncompressed offset of block b, start[blocks] the total length */
+    private final long[] start;
+    /** frame[b] is the file offset of the frame of block b, frame[blocks] the trailer offset */
+    private final long[] frame;
+
+    /** the last block decoded, so reads that stay in one block decode it only once */
+    private int cachedBlock = -1;
+    private byte[] cached;
+
+    // open the archive written by write()
+    public BlockArchive(Path archive) throws IOException {
+        in = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            long size = in.size();
+            if (size < FOOTER_BYTES) {
+                throw new IllegalArgumentException("not a block archive");
+            }
+            ByteBuffer footer = readFully(size - FOOTER_BYTES, FOOTER_BYTES);
+            int blocks = footer.getInt();
+            long length = footer.getLong();
+            long trailer = footer.getLong();
+            if (footer.getInt() != MAGIC || blocks < 0 || length < 0
+                    || trailer < 0 || trailer + (long) blocks * ENTRY_BYTES != size - FOOTER_BYTES) {
+                throw new IllegalArgumentException("not a block archive");
+            }
+            start = new long[blocks + 1];
+            frame = new long[blocks + 1];
+            ByteBuffer entries = readFully(trailer, blocks * ENTRY_BYTES);
+            for (int b = 0; b < blocks; b++) {
+                start[b] = entries.getLong();
+                frame[b] = entries.getLong();
+            }
+            start[blocks] = length;
+            frame[blocks] = trailer;
+            for (int b = 0; b < blocks; b++) {
+                if (start[b] >= start[b + 1] || frame[b] >= frame[b + 1]) {
+                    throw new IllegalArgumentException("bad block index");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // uncompressed length of the archive
+    public long length() {
+        return start[start.length - 1];
+    }
+
+    // number of blocks
+    public int blocks() {
+        return start.length - 1;
+    }
+
+    // the uncompressed bytes [offset, offset + len), decoding only the blocks that hold them
+    public byte[] read(long offset, int len) throws IOException {
+        if (offset < 0 || len < 0 || offset + len > length()) {
+            throw new IllegalArgumentException();
+        }
+        byte[] result = new byte[len];
+        int n = 0;
+        while (n < len) {
+            long pos = offset + n;
+            int b = block(pos);
+            byte[] data = decode(b);
+            int from = (int) (pos - start[b]);
+            int count = (int) Math.min(len - n, start[b + 1] - pos);
+            System.arraycopy(data, from, result, n, count);
+            n += count;
+        }
+        return result;
+    }
+
+    /** the block holding the uncompressed offset pos */
+    private int block(long pos) {
+        int b = Arrays.binarySearch(start, 0, start.length - 1, pos);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    private byte[] decode(int b) throws IOException {
+        if (b != cachedBlock) {
+            long size = frame[b + 1] - frame[b];
+            int length = (int) (start[b + 1] - start[b]);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("bad block index");
+            }
+            byte[] data = new byte[length];
+            ByteBuffer buf = readFully(frame[b], (int) size);
+            if (BurrowsCompressor.decompressBlock(buf.array(), 0, data) != length) {
+                throw new IllegalArgumentException("bad block length");
+            }
+            cached = data;
+            cachedBlock = b;
+        }
+        return cached;
+    }
+
+    /** n bytes at pos, in a heap buffer positioned at 0 */
+    private ByteBuffer readFully(long pos, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(n);
+        if (!BurrowsIO.readFully(in, buf, pos)) {
+            throw new IllegalArgumentException("truncated archive");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // compress input into an archive of blocks of blockSize bytes
+    public static void write(Path input, Path output, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            int blocks = (int) ((size + blockSize - 1) / blockSize);
+            ByteBuffer trailer = ByteBuffer.allocate(blocks * ENTRY_BYTES + FOOTER_BYTES);
+            ByteBuffer block = ByteBuffer.allocate(blockSize);
+            long written = 0;
+            for (long pos = 0; pos < size; pos += blockSize) {
+                int length = (int) Math.min(blockSize, size - pos);
+                block.clear();
+                block.limit(length);
+                if (!BurrowsIO.readFully(in, block, pos)) {
+                    throw new IOException("input shrank while compressing");
+                }
+                byte[] frame = BurrowsCompressor.compressBlock(block.array(), length);
+                trailer.putLong(pos);
+                trailer.putLong(written);
+                BurrowsIO.writeFully(out, ByteBuffer.wrap(frame));
+                written += frame.length;
+            }
+            trailer.putInt(blocks);
+            trailer.putLong(size);
+            trailer.putLong(written);
+            trailer.putInt(MAGIC);
+            trailer.flip();
+            BurrowsIO.writeFully(out, trailer);
+        }
+    }
+
+    // "- blockSize input archive" writes an archive,
+    // "+ archive output" restores all of it,
+    // "@ archive offset len output" restores len bytes from the uncompressed offset
+    public static void main(String[] args) throws IOException {
+        String s = args[0];
+        if (s.equals("-")) {
+            write(Path.of(args[2]), Path.of(args[3]), Integer.parseInt(args[1]));
+            return;
+        }
+        try (BlockArchive archive = new BlockArchive(Path.of(args[1]));
+             FileChannel out = FileChannel.open(Path.of(args[args.length - 1]), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (s.equals("+")) {
+                for (int b = 0; b < archive.blocks(); b++) {
+                    BurrowsIO.writeFully(out, ByteBuffer.wrap(archive.decode(b)));
+                }
+            } else if (s.equals("@")) {
+                long offset = Long.parseLong(args[2]);
+                int len = Integer.parseInt(args[3]);
+                BurrowsIO.writeFully(out, ByteBuffer.wrap(archive.read(offset, len)));
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Throughput of the hot paths: CircularSuffixArray construction, forward and inverse
+ * Burrows-Wheeler transform, move-to-front encode and decode.
+ * Every operation runs over a matrix of input sizes (1 KB to 64 MB, by factors of 4) and shapes
+ * (random bytes, English-like text, abra.txt repeated, a single repeated byte, and binary data:
+ * a slice of the JDK's module image, $JAVA_HOME/lib/modules, i.e. class files and native code).
+ * Each case is warmed up, then timed over several runs; the median is reported in MB/s together
+ * with the bytes allocated per run, read from the per-thread allocation counter of the JVM.
+ */
+public class BurrowsBenchmark {
+
+    private static final int KB = 1 << 10;
+    private static final int MIN_SIZE = KB;
+    private static final int MAX_SIZE = 64 * KB * KB;
+
+    private static final String[] SHAPES = {"random", "english", "abra", "same", "binary"};
+    private static final String[] OPERATIONS = {"csa", "bwt", "ibwt", "mtf", "imtf"};
+
+    /** warm up for this long, then time runs for at least this long (and at least RUNS runs) */
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+    private static final int RUNS = 5;
+
+    private static final String[] WORDS = {
+        "the", "of", "and", "to", "a", "in", "that", "is", "was", "he", "for", "it", "with", "as",
+        "his", "on", "be", "at", "by", "I", "this", "had", "not", "are", "but", "from", "or", "have",
+        "an", "they", "which", "one", "you", "were", "her", "all", "she", "there", "would", "their",
+        "we", "him", "been", "has", "when", "who", "will", "more", "no", "if", "out", "so", "said",
+        "what", "up", "its", "about", "into", "than", "them", "can", "only", "other", "new", "some",
+        "could", "time", "these", "two", "may", "then", "do", "first", "any", "my", "now", "such",
+        "like", "our", "over", "man", "me", "even", "most", "made", "after", "also", "did", "many",
+        "before", "must", "through", "back", "years", "where", "much", "your", "way", "well", "down",
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /** keeps results alive so the JIT cannot drop the work */
+    private static long sink;
+
+    /** one operation over a prepared input */
+    private interface Case {
+        void run();
+    }
+
+    // input of the given shape and size
+    static byte[] input(String shape, int size) throws IOException {
+        byte[] data = new byte[size];
+        Random random = new Random(size);
+        switch (shape) {
+            case "random":
+                random.nextBytes(data);
+                break;
+            case "english":
+                for (int i = 0; i < size; ) {
+                    byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes(StandardCharsets.US_ASCII);
+                    for (int j = 0; j < word.length && i < size; j++) {
+                        data[i++] = word[j];
+                    }
+                    if (i < size) {
+                        data[i++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+                    }
+                }
+                break;
+            case "abra":
+                repeat(readOrDefault(Path.of("abra.txt"), "ABRACADABRA!"), data);
+                break;
+            case "same":
+                Arrays.fill(data, (byte) 'A');
+                break;
+            case "binary":
+                binary(data);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape " + shape);
+        }
+        return data;
+    }
+
+    private static byte[] readOrDefault(Path path, String fallback) throws IOException {
+        if (Files.isRegularFile(path)) {
+            byte[] bytes = Files.readAllBytes(path);
+            if (bytes.length > 0) {
+                return bytes;
+            }
+        }
+        return fallback.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * fill data with a slice from the middle of the JDK's module image, more than 100 MB of class
+     * files and native libraries; only if there is none that large, with the java launcher repeated
+     */
+    private static void binary(byte[] data) throws IOException {
+        Path modules = Path.of(System.getProperty("java.home"), "lib", "modules");
+        if (!Files.isRegularFile(modules) || Files.size(modules) < data.length) {
+            String java = ProcessHandle.current().info().command().orElse("");
+            repeat(readOrDefault(Path.of(java), "\u007fELF"), data);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(modules)) {
+            long offset = (in.size() - data.length) / 2;
+            if (!BurrowsIO.readFully(in, ByteBuffer.wrap(data), offset)) {
+                throw new IOException("unexpected end of " + modules);
+            }
+        }
+    }
+
+    private static void repeat(byte[] unit, byte[] data) {
+        for (int i = 0; i < data.length; i += unit.length) {
+            System.arraycopy(unit, 0, data, i, Math.min(unit.length, data.length - i));
+        }
+    }
+
+    /** the operation on data, with its inputs prepared outside of the timed part */
+    private static Case prepare(String operation, byte[] data) {
+        int n = data.length;
+        byte[] out = new byte[n];
+        switch (operation) {
+            case "csa":
+                return () -> sink += new CircularSuffixArray(data).index(0);
+            case "bwt":
+                return () -> sink += BurrowsWheeler.transform(data, out);
+            case "ibwt": {
+                byte[] t = new byte[n];
+                int first = BurrowsWheeler.transform(data, t);
+                return () -> {
+                    BurrowsWheeler.inverseTransform(t, first, out);
+                    sink += out[0];
+                };
+            }
+            case "mtf":
+                return () -> {
+                    MoveToFront.encode(data, 0, n, out);
+                    sink += out[n - 1];
+                };
+            case "imtf": {
+                byte[] encoded = new byte[n];
+                MoveToFront.encode(data, 0, n, encoded);
+                return () -> {
+                    MoveToFront.decode(encoded, 0, n, out);
+                    sink += out[n - 1];
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown operation " + operation);
+        }
+    }
+
+    /** {MB/s, bytes allocated per run} of the median run */
+    private static double[] measure(Case c, int size) {
+        long id = Thread.currentThread().getId();
+        for (long end = System.nanoTime() + WARMUP_NANOS; System.nanoTime() < end; ) {
+            c.run();
+        }
+        double[] seconds = new double[RUNS];
+        long allocated = 0;
+        int runs = 0;
+        long end = System.nanoTime() + MEASURE_NANOS;
+        while (runs < RUNS || System.nanoTime() < end) {
+            long bytes = THREADS.getThreadAllocatedBytes(id);
+            long t0 = System.nanoTime();
+            c.run();
+            long t1 = System.nanoTime();
+            allocated += THREADS.getThreadAllocatedBytes(id) - bytes;
+            if (runs == seconds.length) {
+                seconds = Arrays.copyOf(seconds, 2 * runs);
+            }
+            seconds[runs++] = (t1 - t0) / 1e9;
+        }
+        Arrays.sort(seconds, 0, runs);
+        double median = seconds[runs / 2];
+        return new double[] {size / median / (KB * KB), (double) allocated / runs};
+    }
+
+    // args: [maxSize [operations [shapes]]], operations and shapes comma separated;
+    // maxSize defaults to 64 MB, e.g. "java BurrowsBenchmark 4194304 bwt,ibwt english,same"
+    public static void main(String[] args) throws IOException {
+        int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : MAX_SIZE;
+        String[] operations = args.length > 1 ? args[1].split(",") : OPERATIONS;
+        String[] shapes = args.length > 2 ? args[2].split(",") : SHAPES;
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.printf("%-6s %-8s %10s %10s %14s%n", "op", "shape", "size", "MB/s", "alloc B/op");
+        for (String shape : shapes) {
+            for (int size = MIN_SIZE; size <= maxSize && size > 0; size *= 4) {
+                byte[] data = input(shape, size);
+                for (String operation : operations) {
+                    double[] result = measure(prepare(operation, data), size);
+                    System.out.printf("%-6s %-8s %10d %10.1f %14.0f%n",
+                            operation, shape, size, result[0], result[1]);
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+}
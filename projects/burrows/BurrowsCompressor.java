@@ -0,0 +1,161 @@
+import edu.princeton.cs.algs4.BinaryStdIn;
+import edu.princeton.cs.algs4.BinaryStdOut;
+
+/**
+ * The whole bzip2-style chain in one JVM, over in-memory buffers:
+ * Burrows-Wheeler transform, move-to-front, run-length coding of zeros, then Huffman coding.
+ * It replaces piping every byte through BurrowsWheeler, MoveToFront and Huffman as separate processes.
+ * The input is cut into blocks and every block is compressed on its own into a frame:
+ * [int length][int symbols][int payload bytes][int k][k ints of restart points][payload from HuffmanCoder]
+ * where the restart points let the inverse transform decode k segments interleaved.
+ */
+public class BurrowsCompressor {
+
+    public static final int DEFAULT_BLOCK_SIZE = 900000;
+
+    /** bytes of the fixed part of the frame header: length, symbols, payload bytes and k */
+    public static final int HEADER_BYTES = 16;
+
+    // compress in[0..length) into one frame
+    public static byte[] compressBlock(byte[] in, int length) {
+        if (in == null || length <= 0 || length > in.length) {
+            throw new IllegalArgumentException();
+        }
+        byte[] t = new byte[length];
+        int[] restarts = new int[BurrowsWheeler.streams(length)];
+        BurrowsWheeler.transform(in, length, t, restarts);
+        byte[] mtf = new byte[length];
+        MoveToFront.encode(t, 0, length, mtf);
+        int[] symbols = new int[length];
+        int count = ZeroRunLength.encode(mtf, length, symbols);
+        byte[] payload = HuffmanCoder.encode(symbols, count, ZeroRunLength.ALPHABET);
+
+        int headerBytes = HEADER_BYTES + restarts.length * Integer.BYTES;
+        byte[] frame = new byte[headerBytes + payload.length];
+        putInt(frame, 0, length);
+        putInt(frame, 4, count);
+        putInt(frame, 8, payload.length);
+        putInt(frame, 12, restarts.length);
+        for (int j = 0; j < restarts.length; j++) {
+            putInt(frame, HEADER_BYTES + j * Integer.BYTES, restarts[j]);
+        }
+        System.arraycopy(payload, 0, frame, headerBytes, payload.length);
+        return frame;
+    }
+
+    /**
+     * total bytes of the frame whose header starts at frame[off],
+     * only the fixed HEADER_BYTES part of the header needs to be there
+     */
+    public static int frameSize(byte[] frame, int off) {
+        int payloadBytes = getInt(frame, off + 8);
+        int streams = getInt(frame, off + 12);
+        if (payloadBytes < 0 || streams <= 0 || streams > BurrowsWheeler.MAX_STREAMS) {
+            throw new IllegalArgumentException("bad frame header");
+        }
+        return HEADER_BYTES + streams * Integer.BYTES + payloadBytes;
+    }
+
+    /** uncompressed length of the frame whose header starts at frame[off] */
+    public static int blockLength(byte[] frame, int off) {
+        return getInt(frame, off);
+    }
+
+    // decompress the frame starting at frame[off] into out[], returns the block length
+    public static int decompressBlock(byte[] frame, int off, byte[] out) {
+        if (frame == null || out == null || off < 0 || off + HEADER_BYTES > frame.length) {
+            throw new IllegalArgumentException();
+        }
+        int length = getInt(frame, off);
+        int count = getInt(frame, off + 4);
+        int payloadBytes = getInt(frame, off + 8);
+        int size = frameSize(frame, off);
+        if (length <= 0 || length > out.length || count < 0 || count > length || off + size > frame.length) {
+            throw new IllegalArgumentException("bad frame header");
+        }
+        int[] restarts = new int[getInt(frame, off + 12)];
+        for (int j = 0; j < restarts.length; j++) {
+            restarts[j] = getInt(frame, off + HEADER_BYTES + j * Integer.BYTES);
+        }
+
+        int[] symbols = new int[count];
+        HuffmanCoder.decode(frame, off + size - payloadBytes, payloadBytes, ZeroRunLength.ALPHABET, symbols, count);
+        byte[] mtf = new byte[length];
+        if (ZeroRunLength.decode(symbols, count, mtf) != length) {
+            throw new IllegalArgumentException("bad block length");
+        }
+        byte[] t = new byte[length];
+        MoveToFront.decode(mtf, 0, length, t);
+        BurrowsWheeler.inverseTransform(t, length, restarts, out);
+        return length;
+    }
+
+    // compress standard input to standard output, block by block
+    public static void compress(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        byte[] in = new byte[blockSize];
+        int length;
+        while ((length = BurrowsIO.readBlock(in)) > 0) {
+            byte[] frame = compressBlock(in, length);
+            BurrowsIO.writeBytes(frame, frame.length);
+        }
+        BinaryStdOut.close();
+    }
+
+    // decompress the frames written by compress(), rejecting blocks longer than blockSize
+    public static void decompress(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        byte[] out = new byte[blockSize];
+        while (!BinaryStdIn.isEmpty()) {
+            byte[] frame = readFrame();
+            int length = decompressBlock(frame, 0, out);
+            BurrowsIO.writeBytes(out, length);
+        }
+        BinaryStdOut.close();
+    }
+
+    /** read one whole frame from standard input */
+    static byte[] readFrame() {
+        byte[] header = new byte[HEADER_BYTES];
+        for (int i = 0; i < HEADER_BYTES; i++) {
+            header[i] = BinaryStdIn.readByte();
+        }
+        int size = frameSize(header, 0);
+        byte[] frame = new byte[size];
+        System.arraycopy(header, 0, frame, 0, HEADER_BYTES);
+        for (int i = HEADER_BYTES; i < size; i++) {
+            frame[i] = BinaryStdIn.readByte();
+        }
+        return frame;
+    }
+
+    /** big-endian, same as BinaryStdOut.write(int) */
+    private static void putInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) (v >>> 24);
+        buf[off + 1] = (byte) (v >>> 16);
+        buf[off + 2] = (byte) (v >>> 8);
+        buf[off + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+                | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    // if args[0] is "-", compress; if args[0] is "+", decompress
+    // args[1], if given, is the block size in bytes (default 900000);
+    // decompressing needs at least the block size used to compress
+    public static void main(String[] args) {
+        String sign = args[0];
+        int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+        if (sign.equals("-")) {
+            compress(blockSize);
+        } else if (sign.equals("+")) {
+            decompress(blockSize);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import edu.princeton.cs.algs4.BinaryStdIn;
+import edu.princeton.cs.algs4.BinaryStdOut;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The block I/O the transforms, the compressor and the archive share: whole blocks from standard
+ * input and to standard output, and full positional reads and writes of a FileChannel.
+ */
+final class BurrowsIO {
+
+    private BurrowsIO() { }
+
+    /** fill buf from standard input, returns the number of bytes read (0 at the end) */
+    static int readBlock(byte[] buf) {
+        int n = 0;
+        while (n < buf.length && !BinaryStdIn.isEmpty()) {
+            buf[n++] = BinaryStdIn.readByte();
+        }
+        return n;
+    }
+
+    /** write buf[0..n) to standard output */
+    static void writeBytes(byte[] buf, int n) {
+        for (int i = 0; i < n; i++) {
+            BinaryStdOut.write(buf[i]);
+        }
+    }
+
+    /**
+     * fill the remaining bytes of buf from the bytes of in at pos onwards, returns false if in
+     * ends first; the caller says what a short read means
+     */
+    static boolean readFully(FileChannel in, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = in.read(buf, pos);
+            if (n < 0) {
+                return false;
+            }
+            pos += n;
+        }
+        return true;
+    }
+
+    /** write all the remaining bytes of buf at the position of out */
+    static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Per-stage instrumentation of the burrows pipeline: suffix sorting, the forward and inverse
+ * Burrows-Wheeler transform, move-to-front encode and decode.
+ * Every call of a stage is one block (or one chunk, for the streaming move-to-front), and records
+ * its wall time, bytes in and out, the comparisons made while sorting suffixes and the number of
+ * zero move-to-front ranks. The records go two ways:
+ * a jdk.jfr event per call, which costs nothing but an isEnabled() check while no recording
+ * asks for it, and cumulative counters that snapshot() reads without stopping the writers.
+ * Counting is a few LongAdder updates per block, so it is left on unless setEnabled(false).
+ */
+public final class BurrowsTelemetry {
+
+    /**
+     * the instrumented stages; TRANSFORM is only the pass over the sorted suffixes,
+     * the sort inside it is recorded as SUFFIX_SORT
+     */
+    public enum Stage {
+        SUFFIX_SORT, TRANSFORM, INVERSE_TRANSFORM, MTF_ENCODE, MTF_DECODE
+    }
+
+    @Name("burrows.Stage")
+    @Label("Burrows Stage")
+    @Category("Burrows")
+    @Description("One block through one stage of the burrows pipeline")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        @Label("Comparisons")
+        @Description("Suffix comparisons, only made by CircularSuffixArray.Mode.COMPARISON")
+        long comparisons;
+
+        @Label("Zero Ranks")
+        @Description("Move-to-front ranks equal to 0")
+        long zeroRanks;
+    }
+
+    /** the totals of one stage */
+    private static final class Counters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder comparisons = new LongAdder();
+        final LongAdder zeroRanks = new LongAdder();
+    }
+
+    /** an immutable copy of the totals of one stage */
+    public static final class Stats {
+        private final long calls;
+        private final long nanos;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long comparisons;
+        private final long zeroRanks;
+
+        private Stats(Counters c) {
+            calls = c.calls.sum();
+            nanos = c.nanos.sum();
+            bytesIn = c.bytesIn.sum();
+            bytesOut = c.bytesOut.sum();
+            comparisons = c.comparisons.sum();
+            zeroRanks = c.zeroRanks.sum();
+        }
+
+        public long calls() {
+            return calls;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public long bytesIn() {
+            return bytesIn;
+        }
+
+        public long bytesOut() {
+            return bytesOut;
+        }
+
+        public long comparisons() {
+            return comparisons;
+        }
+
+        public long zeroRanks() {
+            return zeroRanks;
+        }
+
+        // MB of input per second of wall time spent in the stage
+        public double throughput() {
+            return nanos == 0 ? 0 : bytesIn * 1e9 / nanos / (1 << 20);
+        }
+
+        // fraction of move-to-front ranks that are 0, one rank per byte
+        public double zeroRatio() {
+            return bytesIn == 0 ? 0 : (double) zeroRanks / bytesIn;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("calls %d, %.3f s, in %d, out %d, %.1f MB/s, comparisons %d, zero ratio %.3f",
+                    calls, nanos / 1e9, bytesIn, bytesOut, throughput(), comparisons, zeroRatio());
+        }
+    }
+
+    /** the totals of every stage at one point in time */
+    public static final class Snapshot {
+        private final Map<Stage, Stats> stats = new EnumMap<>(Stage.class);
+
+        private Snapshot() {
+            for (Stage stage : Stage.values()) {
+                stats.put(stage, new Stats(COUNTERS.get(stage)));
+            }
+        }
+
+        public Stats get(Stage stage) {
+            return stats.get(stage);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<Stage, Stats> e : stats.entrySet()) {
+                sb.append(String.format("%-17s %s%n", e.getKey(), e.getValue()));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static final Map<Stage, Counters> COUNTERS = new EnumMap<>(Stage.class);
+
+    static {
+        for (Stage stage : Stage.values()) {
+            COUNTERS.put(stage, new Counters());
+        }
+    }
+
+    private static volatile boolean enabled = true;
+
+    private BurrowsTelemetry() { }
+
+    // turn the cumulative counters on or off; JFR events only depend on the recording settings
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    // cumulative totals of every stage since the start or the last reset()
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    // zero the cumulative totals
+    public static void reset() {
+        for (Counters c : COUNTERS.values()) {
+            c.calls.reset();
+            c.nanos.reset();
+            c.bytesIn.reset();
+            c.bytesOut.reset();
+            c.comparisons.reset();
+            c.zeroRanks.reset();
+        }
+    }
+
+    /** time stamp to pass to record() at the end of the stage */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /** record one call of a stage that began at start */
+    static void record(Stage stage, long start, long bytesIn, long bytesOut, long comparisons, long zeroRanks) {
+        long nanos = System.nanoTime() - start;
+        if (enabled) {
+            Counters c = COUNTERS.get(stage);
+            c.calls.increment();
+            c.nanos.add(nanos);
+            c.bytesIn.add(bytesIn);
+            c.bytesOut.add(bytesOut);
+            c.comparisons.add(comparisons);
+            c.zeroRanks.add(zeroRanks);
+        }
+        StageEvent event = new StageEvent();
+        if (event.isEnabled()) {
+            event.stage = stage.name();
+            event.wallTime = nanos;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.comparisons = comparisons;
+            event.zeroRanks = zeroRanks;
+            event.commit();
+        }
+    }
+
+    // compress and decompress standard input in memory, then print the snapshot
+    public static void main(String[] args) {
+        byte[] in = new byte[BurrowsCompressor.DEFAULT_BLOCK_SIZE];
+        byte[] out = new byte[in.length];
+        int length;
+        while ((length = BurrowsIO.readBlock(in)) > 0) {
+            byte[] frame = BurrowsCompressor.compressBlock(in, length);
+            BurrowsCompressor.decompressBlock(frame, 0, out);
+        }
+        System.out.print(snapshot());
+    }
+}
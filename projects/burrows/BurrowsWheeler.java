@@ -1,52 +1,222 @@
 import edu.princeton.cs.algs4.BinaryStdIn;
 import edu.princeton.cs.algs4.BinaryStdOut;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
 public class BurrowsWheeler {
 
     private static final int R = 256;
+
+    /** most restart points recorded per block, see transform(ByteBuffer, ByteBuffer, int[]) */
+    public static final int MAX_STREAMS = 8;
+
+    /** one restart point per this many bytes of a block, up to MAX_STREAMS */
+    private static final int STREAM_LENGTH = 1 << 16;
+
     // apply Burrows-Wheeler transform,
     // reading from standard input and writing to standard output
     public static void transform() {
-        int first = 0;
-        String s = BinaryStdIn.readString();
-        CircularSuffixArray suffixArray = new CircularSuffixArray(s);
-        int length = suffixArray.length();
-        char[] t = new char[length];
+        byte[] in = readAllBytes();
+        byte[] out = new byte[in.length];
+        int first = transform(in, out);
+        BinaryStdOut.write(first);
+        BurrowsIO.writeBytes(out, out.length);
+        BinaryStdOut.close();
+    }
+
+    /**
+     * apply Burrows-Wheeler transform to the bytes in[], writing the last column t[] to out[]
+     * and returning first, the row of the original string among the sorted suffixes.
+     * Only byte[] and int[] are used: the circular suffix s[i..] + s[..i] is read modulo length,
+     * so neither s + s nor any String or char[] copy is formed.
+     */
+    public static int transform(byte[] in, byte[] out) {
+        if (in == null) {
+            throw new IllegalArgumentException();
+        }
+        return transform(in, in.length, out);
+    }
+
+    // apply Burrows-Wheeler transform to in[0..length), writing to out[0..length)
+    public static int transform(byte[] in, int length, byte[] out) {
+        if (in == null || out == null || length < 0 || length > in.length || out.length < length) {
+            throw new IllegalArgumentException();
+        }
+        return transform(ByteBuffer.wrap(in, 0, length), ByteBuffer.wrap(out, 0, length));
+    }
+
+    /**
+     * apply Burrows-Wheeler transform to the remaining bytes of in, e.g. a block of a mapped file,
+     * putting t[] into out; both positions are advanced. The bytes are read in place, not copied.
+     */
+    public static int transform(ByteBuffer in, ByteBuffer out) {
+        int[] restarts = new int[1];
+        transform(in, out, restarts);
+        return restarts[0];
+    }
+
+    // apply Burrows-Wheeler transform to in[0..length), writing to out[0..length) and the restart points
+    public static void transform(byte[] in, int length, byte[] out, int[] restarts) {
+        if (in == null || out == null || length < 0 || length > in.length || out.length < length) {
+            throw new IllegalArgumentException();
+        }
+        transform(ByteBuffer.wrap(in, 0, length), ByteBuffer.wrap(out, 0, length), restarts);
+    }
+
+    /**
+     * Same as transform(ByteBuffer, ByteBuffer), and also records restart points for the inverse:
+     * the text is cut into k = restarts.length segments starting at position p = j * length / k,
+     * and restarts[j] is the row of the suffix starting at p, so restarts[0] is first.
+     * Each segment can then be decoded on its own, see inverseTransform(ByteBuffer, int[], ByteBuffer).
+     */
+    public static void transform(ByteBuffer in, ByteBuffer out, int[] restarts) {
+        if (in == null || out == null || restarts == null || out.remaining() < in.remaining()
+                || restarts.length == 0 || restarts.length > Math.max(1, in.remaining())) {
+            throw new IllegalArgumentException();
+        }
+        int base = in.position();
+        int outBase = out.position();
+        int length = in.remaining();
+        int streams = restarts.length;
+        restarts[0] = 0;
+        CircularSuffixArray suffixArray = new CircularSuffixArray(in, CircularSuffixArray.Mode.AUTO);
+        long start = BurrowsTelemetry.start();
         for (int i = 0; i < length; i++) {
             int index = suffixArray.index(i);
+            // the only segment that may start at index is j = ceil(index * k / length)
+            int j = (int) (((long) index * streams + length - 1) / length);
+            if (j < streams && segmentStart(j, streams, length) == index) {
+                restarts[j] = i;
+            }
             if (index == 0) {
-                first = i;
+                out.put(outBase + i, in.get(base + length - 1));
+            } else {
+                out.put(outBase + i, in.get(base + index - 1));
             }
-            int num = (suffixArray.index(i) + length - 1) % length;
-            t[i] = s.charAt(num);
-        }
-        BinaryStdOut.write(first);
-        for (int i = 0; i < length; i++) {
-            BinaryStdOut.write(t[i]);
         }
-        BinaryStdOut.close();
+        in.position(base + length);
+        out.position(outBase + length);
+        BurrowsTelemetry.record(BurrowsTelemetry.Stage.TRANSFORM, start, length, length, 0, 0);
+    }
+
+    /** start of segment j when length bytes are cut into the given number of segments */
+    private static int segmentStart(int j, int streams, int length) {
+        return (int) ((long) j * length / streams);
+    }
+
+    // number of restart points to record for a block of the given length
+    public static int streams(int length) {
+        return Math.max(1, Math.min(MAX_STREAMS, length / STREAM_LENGTH));
     }
 
     // apply Burrows-Wheeler inverse transform,
     // reading from standard input and writing to standard output
     public static void inverseTransform() {
         int first = BinaryStdIn.readInt();
-        char[] t = BinaryStdIn.readString().toCharArray();
+        byte[] t = readAllBytes();
+        byte[] origin = new byte[t.length];
+        inverseTransform(t, first, origin);
+        BurrowsIO.writeBytes(origin, origin.length);
+        BinaryStdOut.close();
+    }
 
-        int[] next = new int[t.length];
-        char[] firstCol = new char[t.length];
-        constructNextArray(t, next, firstCol);
+    /**
+     * apply Burrows-Wheeler inverse transform to the last column t[] with the given first,
+     * writing the original bytes to out[]
+     */
+    public static void inverseTransform(byte[] t, int first, byte[] out) {
+        if (t == null) {
+            throw new IllegalArgumentException();
+        }
+        inverseTransform(t, t.length, first, out);
+    }
 
-        char[] origin = new char[t.length];
-        int tmp = first;
-        for (int i = 0; i < t.length; i++) {
-            origin[i] = firstCol[tmp];
-            tmp = next[tmp];
+    // apply Burrows-Wheeler inverse transform to t[0..length), writing to out[0..length)
+    public static void inverseTransform(byte[] t, int length, int first, byte[] out) {
+        if (t == null || out == null || length < 0 || length > t.length || out.length < length) {
+            throw new IllegalArgumentException();
         }
-        for (int i = 0; i < origin.length; i++) {
-            BinaryStdOut.write(origin[i]);
+        inverseTransform(ByteBuffer.wrap(t, 0, length), first, ByteBuffer.wrap(out, 0, length));
+    }
+
+    /**
+     * apply Burrows-Wheeler inverse transform to the remaining bytes of t, putting the original
+     * bytes into out; both positions are advanced. The bytes are read in place, not copied.
+     */
+    public static void inverseTransform(ByteBuffer t, int first, ByteBuffer out) {
+        inverseTransform(t, new int[] {first}, out);
+    }
+
+    // apply Burrows-Wheeler inverse transform to t[0..length) with the restart points from transform
+    public static void inverseTransform(byte[] t, int length, int[] restarts, byte[] out) {
+        if (t == null || out == null || length < 0 || length > t.length || out.length < length) {
+            throw new IllegalArgumentException();
         }
-        BinaryStdOut.close();
+        inverseTransform(ByteBuffer.wrap(t, 0, length), restarts, ByteBuffer.wrap(out, 0, length));
+    }
+
+    /**
+     * Following next[] is a chain of dependent random reads, one cache miss per byte on large blocks.
+     * With the restart points recorded by transform, every segment has its own chain,
+     * so the chains are walked interleaved, one step of each per round:
+     * their reads are independent and the CPU overlaps their cache misses.
+     * Note: the first column is not stored, since row r of it is t[next[r]],
+     * i.e. the char that moves to the end when going from row r to row next[r].
+     */
+    public static void inverseTransform(ByteBuffer t, int[] restarts, ByteBuffer out) {
+        if (t == null || out == null || restarts == null || out.remaining() < t.remaining()) {
+            throw new IllegalArgumentException();
+        }
+        int base = t.position();
+        int outBase = out.position();
+        int length = t.remaining();
+        if (length == 0) {
+            return;
+        }
+        int streams = restarts.length;
+        if (streams == 0 || streams > length) {
+            throw new IllegalArgumentException();
+        }
+        int[] row = new int[streams];
+        int[] start = new int[streams + 1];
+        for (int j = 0; j < streams; j++) {
+            if (restarts[j] < 0 || restarts[j] >= length) {
+                throw new IllegalArgumentException();
+            }
+            row[j] = restarts[j];
+            start[j] = segmentStart(j, streams, length);
+        }
+        start[streams] = length;
+
+        long begin = BurrowsTelemetry.start();
+        int[] next = new int[length];
+        constructNextArray(t, base, length, next);
+
+        // all segments are at least length / streams long, walk that much in lockstep
+        int shortest = length / streams;
+        for (int i = 0; i < shortest; i++) {
+            for (int j = 0; j < streams; j++) {
+                int r = next[row[j]];
+                row[j] = r;
+                out.put(outBase + start[j] + i, t.get(base + r));
+            }
+        }
+        for (int j = 0; j < streams; j++) {
+            int r = row[j];
+            for (int i = start[j] + shortest; i < start[j + 1]; i++) {
+                r = next[r];
+                out.put(outBase + i, t.get(base + r));
+            }
+        }
+        t.position(base + length);
+        out.position(outBase + length);
+        BurrowsTelemetry.record(BurrowsTelemetry.Stage.INVERSE_TRANSFORM, begin, length, length, 0, 0);
     }
 
     /**
@@ -58,25 +228,189 @@ public class BurrowsWheeler {
      * that's exactly what the count[] array is doing.
      * i.e. next[count[t[i]]] = i;
      */
-    private static void constructNextArray(char[] t, int[] next, char[] firstCol) {
+    private static void constructNextArray(ByteBuffer t, int base, int length, int[] next) {
         int[] count = new int[R + 1];
-        for (int i = 0; i < t.length; i++)
-            count[t[i] + 1]++;
+        for (int i = 0; i < length; i++)
+            count[(t.get(base + i) & 0xFF) + 1]++;
         for (int i = 0; i < R; i++)
             count[i + 1] += count[i];
         // The trickiest part
-        for (int i = 0; i < t.length; i++) {
-            next[count[t[i]]] = i;
-            firstCol[count[t[i]]] = t[i];
-            count[t[i]]++;
+        for (int i = 0; i < length; i++) {
+            int c = t.get(base + i) & 0xFF;
+            next[count[c]] = i;
+            count[c]++;
+        }
+    }
+
+    /**
+     * Block mode: like bzip2, cut standard input into blocks of at most blockSize bytes
+     * and transform each one on its own, so memory is bounded by the block size
+     * and not by the input size. Every block is written as a frame:
+     * [int length][int k][k ints of restart points, the first one is first][length bytes of t[]]
+     */
+    public static void transform(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
         }
+        byte[] in = new byte[blockSize];
+        byte[] out = new byte[blockSize];
+        int length;
+        while ((length = BurrowsIO.readBlock(in)) > 0) {
+            int[] restarts = new int[streams(length)];
+            transform(in, length, out, restarts);
+            BinaryStdOut.write(length);
+            BinaryStdOut.write(restarts.length);
+            for (int restart : restarts) {
+                BinaryStdOut.write(restart);
+            }
+            BurrowsIO.writeBytes(out, length);
+        }
+        BinaryStdOut.close();
+    }
+
+    /**
+     * Block mode inverse: decode the frames written by transform(int) one at a time.
+     * A frame longer than blockSize is rejected, so memory stays bounded on bad input too.
+     */
+    public static void inverseTransform(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        byte[] t = new byte[blockSize];
+        byte[] origin = new byte[blockSize];
+        while (!BinaryStdIn.isEmpty()) {
+            int length = BinaryStdIn.readInt();
+            int streams = BinaryStdIn.readInt();
+            if (length <= 0 || length > blockSize || streams <= 0 || streams > MAX_STREAMS) {
+                throw new IllegalArgumentException("bad frame header");
+            }
+            int[] restarts = new int[streams];
+            for (int j = 0; j < streams; j++) {
+                restarts[j] = BinaryStdIn.readInt();
+            }
+            for (int i = 0; i < length; i++) {
+                t[i] = BinaryStdIn.readByte();
+            }
+            inverseTransform(t, length, restarts, origin);
+            BurrowsIO.writeBytes(origin, length);
+        }
+        BinaryStdOut.close();
+    }
+
+    /**
+     * File mode: the same frames as transform(int), from file to file with NIO instead of
+     * BinaryStdIn/BinaryStdOut. Every block is mapped with FileChannel.map and transformed
+     * straight from the mapping, and frames go out through one reused direct buffer.
+     */
+    public static void transform(Path input, Path output, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer frame = ByteBuffer.allocateDirect((2 + MAX_STREAMS) * Integer.BYTES + blockSize);
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += blockSize) {
+                int length = (int) Math.min(blockSize, size - pos);
+                MappedByteBuffer block = in.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                int[] restarts = new int[streams(length)];
+                frame.clear();
+                frame.position((2 + restarts.length) * Integer.BYTES);
+                transform(block, frame, restarts);
+                frame.putInt(0, length);
+                frame.putInt(Integer.BYTES, restarts.length);
+                for (int j = 0; j < restarts.length; j++) {
+                    frame.putInt((2 + j) * Integer.BYTES, restarts[j]);
+                }
+                frame.flip();
+                BurrowsIO.writeFully(out, frame);
+            }
+        }
+    }
+
+    // file mode inverse of transform(Path, Path, int), rejecting blocks longer than blockSize
+    public static void inverseTransform(Path input, Path output, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate((2 + MAX_STREAMS) * Integer.BYTES);
+            ByteBuffer origin = ByteBuffer.allocateDirect(blockSize);
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                readFully(in, header, pos, 2 * Integer.BYTES);
+                int length = header.getInt(0);
+                int streams = header.getInt(Integer.BYTES);
+                if (length <= 0 || length > blockSize || streams <= 0 || streams > MAX_STREAMS) {
+                    throw new IllegalArgumentException("bad frame header");
+                }
+                pos += 2 * Integer.BYTES;
+                readFully(in, header, pos, streams * Integer.BYTES);
+                int[] restarts = new int[streams];
+                for (int j = 0; j < streams; j++) {
+                    restarts[j] = header.getInt(j * Integer.BYTES);
+                }
+                pos += streams * Integer.BYTES;
+                if (length > size - pos) {
+                    throw new IllegalArgumentException("truncated frame");
+                }
+                MappedByteBuffer t = in.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                origin.clear();
+                inverseTransform(t, restarts, origin);
+                origin.flip();
+                BurrowsIO.writeFully(out, origin);
+                pos += length;
+            }
+        }
+    }
+
+    /** read n bytes at pos into buf[0..n) */
+    private static void readFully(FileChannel in, ByteBuffer buf, long pos, int n) throws IOException {
+        buf.clear();
+        buf.limit(n);
+        if (!BurrowsIO.readFully(in, buf, pos)) {
+            throw new IllegalArgumentException("truncated frame header");
+        }
+    }
+
+    /** read standard input to the end, growing the buffer by doubling */
+    private static byte[] readAllBytes() {
+        byte[] buf = new byte[R];
+        int n = 0;
+        while (!BinaryStdIn.isEmpty()) {
+            if (n == buf.length) {
+                buf = Arrays.copyOf(buf, 2 * n);
+            }
+            buf[n++] = BinaryStdIn.readByte();
+        }
+        return Arrays.copyOf(buf, n);
     }
 
     // if args[0] is "-", apply Burrows-Wheeler transform
     // if args[0] is "+", apply Burrows-Wheeler inverse transform
-    public static void main(String[] args) {
+    // if args[1] is given, use block mode with blocks of args[1] bytes (e.g. 900000) both ways
+    // if args[2] and args[3] are given too, read the file args[2] and write the file args[3]
+    public static void main(String[] args) throws IOException {
         String s = args[0];
-        if (s.equals("-")) {
+        if (args.length > 3) {
+            int blockSize = Integer.parseInt(args[1]);
+            if (s.equals("-")) {
+                transform(Path.of(args[2]), Path.of(args[3]), blockSize);
+            } else if (s.equals("+")) {
+                inverseTransform(Path.of(args[2]), Path.of(args[3]), blockSize);
+            }
+        } else if (args.length > 1) {
+            int blockSize = Integer.parseInt(args[1]);
+            if (s.equals("-")) {
+                transform(blockSize);
+            } else if (s.equals("+")) {
+                inverseTransform(blockSize);
+            }
+        } else if (s.equals("-")) {
             transform();
         } else if (s.equals("+")) {
             inverseTransform();
@@ -1,25 +1,48 @@
-
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class CircularSuffixArray {
 
+    /** how the circular suffixes get sorted */
+    public enum Mode {
+        /** sort one SuffixArray object per position, comparing char by char */
+        COMPARISON,
+        /** induced sorting (SA-IS) of the least rotation, linear time */
+        LINEAR,
+        /** prefix doubling of the primitive root, O(n log n) */
+        DOUBLING,
+        /** pick LINEAR or DOUBLING by a cheap probe of the text */
+        AUTO
+    }
+
+    /** alphabet size of byte input */
+    private static final int R = 256;
+
+    /** window length and number of windows sampled by the repetitiveness probe */
+    private static final int PROBE_WINDOW = 16;
+    private static final int PROBE_SAMPLES = 1024;
+
+    /** above this length SA-IS wins even on text with short repeats */
+    private static final int DOUBLING_CUTOFF = 1 << 20;
+
     private final int length;
     private final int[] index;
 
     private static class SuffixArray implements Comparable<SuffixArray> {
         int index;
-        String s;
-        SuffixArray(int index, String s) {
+        int[] s;
+        SuffixArray(int index, int[] s) {
             this.index = index;
             this.s = s;
         }
 
-        char charAt(int i) {
-            return s.charAt(index + i);
+        int charAt(int i) {
+            int j = index + i;
+            return s[j < s.length ? j : j - s.length];
         }
 
         int length() {
-            return s.length() / 2;
+            return s.length;
         }
 
         @Override
@@ -35,30 +58,238 @@ public class CircularSuffixArray {
 
     // circular suffix array of s
     public CircularSuffixArray(String s) {
-        if (s ==  null) {
+        this(s, Mode.AUTO);
+    }
+
+    // circular suffix array of s, sorted the given way
+    public CircularSuffixArray(String s, Mode mode) {
+        if (s ==  null || mode == null) {
             throw new IllegalArgumentException();
         }
         length = s.length();
-        String t = s + s;
-        index = new int[length];
-        createCSA(t);
+        int[] text = new int[length];
+        int upper = 0;
+        for (int i = 0; i < length; i++) {
+            text[i] = s.charAt(i);
+            upper = Math.max(upper, text[i]);
+        }
+        index = sort(text, upper, mode);
+    }
+
+    // circular suffix array of the bytes s, read as unsigned
+    public CircularSuffixArray(byte[] s) {
+        this(s, s == null ? 0 : s.length, Mode.AUTO);
     }
 
-    private void createCSA(String t) {
+    // circular suffix array of s[0..n), read as unsigned bytes, sorted the given way
+    public CircularSuffixArray(byte[] s, int n, Mode mode) {
+        this(s == null || n < 0 || n > s.length ? null : ByteBuffer.wrap(s, 0, n), mode);
+    }
+
+    // circular suffix array of the remaining bytes of s, read as unsigned, sorted the given way;
+    // s may be a mapped file, its position is left unchanged
+    public CircularSuffixArray(ByteBuffer s, Mode mode) {
+        if (s == null || mode == null) {
+            throw new IllegalArgumentException();
+        }
+        length = s.remaining();
+        int base = s.position();
+        int[] text = new int[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = s.get(base + i) & 0xFF;
+        }
+        index = sort(text, R - 1, mode);
+    }
+
+    private static int[] sort(int[] text, int upper, Mode mode) {
+        long start = BurrowsTelemetry.start();
+        if (mode == Mode.AUTO) {
+            mode = text.length <= DOUBLING_CUTOFF && !isRepetitive(text) ? Mode.DOUBLING : Mode.LINEAR;
+        }
+        int[] index;
+        long[] comparisons = new long[1];
+        if (mode == Mode.COMPARISON) {
+            index = createCSA(text, comparisons);
+        } else if (mode == Mode.DOUBLING) {
+            index = createDoublingCSA(text, upper);
+        } else {
+            index = createLinearCSA(text, upper);
+        }
+        BurrowsTelemetry.record(BurrowsTelemetry.Stage.SUFFIX_SORT, start,
+                text.length, index.length, comparisons[0], 0);
+        return index;
+    }
+
+    // comparisons[0] is incremented once per compareTo
+    private static int[] createCSA(int[] t, long[] comparisons) {
+        int length = t.length;
         SuffixArray[] suffixes = new SuffixArray[length];
         /** Notice: beginning with Java 7, Update 6, the substring() method takes time and space
          * proportional to the length of the substring.
          * So, explicitly forming the n circular suffixes in this way
          * would take both quadratic time and space.
-         * so we create nested class SuffixArray and override compareTo method
+         * so we create nested class SuffixArray and override compareTo method,
+         * which reads the circular suffix by index modulo length instead of forming s + s
          */
         for (int i = 0; i < length; i++) {
             suffixes[i] = new SuffixArray(i, t);
         }
-        Arrays.sort(suffixes);
+        Arrays.sort(suffixes, (a, b) -> {
+            comparisons[0]++;
+            return a.compareTo(b);
+        });
+        int[] index = new int[length];
         for (int i = 0; i < length; i++) {
             index[i] = suffixes[i].index;
         }
+        return index;
+    }
+
+    /**
+     * Consider: if s = u^k where u is primitive, the rotations of s are the rotations of u,
+     * each one repeated k times (at i, i + |u|, i + 2|u|, ...).
+     * A primitive u has a unique least rotation w, which is a Lyndon word,
+     * and for a Lyndon word the order of its rotations equals the order of its suffixes.
+     * So sorting the suffixes of w with SA-IS sorts the circular suffixes in linear time,
+     * without ever forming s + s.
+     * Equal rotations are listed in increasing index order, same as the stable Arrays.sort.
+     * Note: the text is rotated in place.
+     */
+    private static int[] createLinearCSA(int[] t, int upper) {
+        int length = t.length;
+        int[] index = new int[length];
+        if (length == 0) {
+            return index;
+        }
+
+        int period = primitiveRootLength(t);
+        int shift = leastRotation(t, period);
+        rotate(t, period, shift);
+        expand(SAIS.sort(t, period, upper), period, shift, index);
+        return index;
+    }
+
+    /**
+     * Prefix doubling needs log2(lcp) rounds, where lcp is the longest common prefix
+     * of two circular suffixes, so it is the faster choice when repeats are short,
+     * and it is never worse than O(n log n).
+     * It sorts cyclic shifts directly, so only the primitive root is needed, no rotation.
+     */
+    private static int[] createDoublingCSA(int[] t, int upper) {
+        int length = t.length;
+        int[] index = new int[length];
+        if (length == 0) {
+            return index;
+        }
+
+        int period = primitiveRootLength(t);
+        expand(PrefixDoubling.sort(t, period, upper), period, 0, index);
+        return index;
+    }
+
+    /**
+     * expand the sorted rotations of the root, which start at (sa[i] + shift) mod period,
+     * to the k equal copies of each in s = u^k, in increasing index order
+     */
+    private static void expand(int[] sa, int period, int shift, int[] index) {
+        int k = 0;
+        for (int i = 0; i < period; i++) {
+            int start = sa[i] + shift;
+            if (start >= period) {
+                start -= period;
+            }
+            for (int j = start; j < index.length; j += period) {
+                index[k++] = j;
+            }
+        }
+    }
+
+    /**
+     * Cheap repetitiveness probe: hash the PROBE_WINDOW chars following up to PROBE_SAMPLES
+     * evenly spaced positions and count the windows seen more than once.
+     * Runs of one byte, zero pages and repeated lines make most sampled windows collide,
+     * while ordinary text and binary data almost never do.
+     */
+    private static boolean isRepetitive(int[] t) {
+        int n = t.length;
+        int samples = Math.min(n, PROBE_SAMPLES);
+        if (samples < 2) {
+            return false;
+        }
+        long[] hashes = new long[samples];
+        long step = n / samples;
+        for (int i = 0; i < samples; i++) {
+            int start = (int) (i * step);
+            long h = 0;
+            for (int j = 0; j < PROBE_WINDOW; j++) {
+                h = h * 31 + t[(start + j) % n];
+            }
+            hashes[i] = h;
+        }
+        Arrays.sort(hashes);
+        int repeated = 0;
+        for (int i = 1; i < samples; i++) {
+            if (hashes[i] == hashes[i - 1]) {
+                repeated++;
+            }
+        }
+        return repeated * 8 >= samples;
+    }
+
+    /** length of the shortest u such that t = u^k, by the prefix function of t */
+    private static int primitiveRootLength(int[] t) {
+        int n = t.length;
+        int[] pi = new int[n];
+        for (int i = 1; i < n; i++) {
+            int k = pi[i - 1];
+            while (k > 0 && t[i] != t[k]) {
+                k = pi[k - 1];
+            }
+            if (t[i] == t[k]) {
+                k++;
+            }
+            pi[i] = k;
+        }
+        int p = n - pi[n - 1];
+        return n % p == 0 ? p : n;
+    }
+
+    /** start of the least rotation of t[0..n), by Duval's factorization over t + t read modulo n */
+    private static int leastRotation(int[] t, int n) {
+        int i = 0;
+        int ans = 0;
+        while (i < n) {
+            ans = i;
+            int j = i + 1;
+            int k = i;
+            while (j < 2 * n && t[k % n] <= t[j % n]) {
+                if (t[k % n] < t[j % n]) {
+                    k = i;
+                } else {
+                    k++;
+                }
+                j++;
+            }
+            while (i <= k) {
+                i += j - k;
+            }
+        }
+        return ans;
+    }
+
+    /** rotate t[0..n) left by shift positions, in place */
+    private static void rotate(int[] t, int n, int shift) {
+        reverse(t, 0, shift - 1);
+        reverse(t, shift, n - 1);
+        reverse(t, 0, n - 1);
+    }
+
+    private static void reverse(int[] t, int lo, int hi) {
+        while (lo < hi) {
+            int tmp = t[lo];
+            t[lo++] = t[hi];
+            t[hi--] = tmp;
+        }
     }
 
     // length of s
@@ -82,6 +313,16 @@ public class CircularSuffixArray {
         for (int i = 0; i < circularSuffixArray.length(); i++) {
             System.out.println("The index of " + i + "th sorted suffix is: " + circularSuffixArray.index(i));
         }
+
+        // all ways of sorting must agree
+        for (Mode mode : Mode.values()) {
+            CircularSuffixArray other = new CircularSuffixArray(s, mode);
+            for (int i = 0; i < s.length(); i++) {
+                if (other.index(i) != circularSuffixArray.index(i)) {
+                    System.out.println(mode + " mismatch at " + i);
+                }
+            }
+        }
     }
 
 }
@@ -0,0 +1,250 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * FM-index over the output of BurrowsWheeler.transform(): substring search on the transformed
+ * block directly, without running the inverse transform.
+ * Backward search reads the pattern right to left and keeps the range [lo, hi) of sorted rows
+ * starting with the suffix of the pattern read so far. Going from P to cP uses
+ * lo' = C[c] + rank(c, lo), hi' = C[c] + rank(c, hi), where C[c] is the number of chars < c
+ * and rank(c, i) is the number of c in t[0..i). So count() takes 2|P| rank operations.
+ * rank() reads a checkpoint of all counts, stored every occRate rows, then scans at most
+ * occRate bytes of t[]. locate() walks each row back with LF (row of the previous text position)
+ * until a row whose text position is sampled, which are every saRate-th positions.
+ * Larger rates use less memory: about 4 * 256 / occRate + 4 / saRate bytes per byte of text
+ * (plus 4 / p if the text is made of copies of a string of length p, see below).
+ * Note: the transform sorts circular suffixes, so a match may wrap around from the end of the
+ * block to its start; such a match starts after length() - |P|.
+ * A text made of copies of a string of length p has equal rotations and LF then has one cycle
+ * per copy, so every multiple of p is sampled as well to keep every walk inside its copy.
+ */
+public class FMIndex {
+
+    private static final int R = 256;
+
+    /** last column of the sorted circular suffixes, i.e. t[] */
+    private final byte[] t;
+    private final int length;
+
+    /** count[c] is the number of chars in t[] smaller than c */
+    private final int[] count;
+
+    /** occ[k * R + c] is the number of c in t[0..k * occRate) */
+    private final int occRate;
+    private final int[] occ;
+
+    /** sampled[] marks rows whose text position is sampled; rowRank[w] counts marks before word w */
+    private final int saRate;
+    private final long[] sampled;
+    private final int[] rowRank;
+    /** text positions of the marked rows, in row order */
+    private final int[] positions;
+
+    /**
+     * index t[0..length) with the given first, as returned by BurrowsWheeler.transform;
+     * t[] is kept, not copied
+     */
+    public FMIndex(byte[] t, int length, int first, int occRate, int saRate) {
+        this(t, length, first, null, occRate, saRate);
+    }
+
+    /** index the text s[0..length) through its circular suffix array, building t[] from it */
+    public FMIndex(byte[] s, int length, CircularSuffixArray suffixArray, int occRate, int saRate) {
+        this(lastColumn(s, length, suffixArray), length, 0, suffixArray, occRate, saRate);
+    }
+
+    private FMIndex(byte[] t, int length, int first, CircularSuffixArray suffixArray, int occRate, int saRate) {
+        if (t == null || length < 0 || length > t.length || occRate <= 0 || saRate <= 0
+                || (length > 0 && (first < 0 || first >= length))) {
+            throw new IllegalArgumentException();
+        }
+        this.t = t;
+        this.length = length;
+        this.occRate = occRate;
+        this.saRate = saRate;
+
+        int checkpoints = length / occRate + 1;
+        occ = new int[checkpoints * R];
+        int[] running = new int[R];
+        for (int i = 0; i < length; i++) {
+            if (i % occRate == 0) {
+                System.arraycopy(running, 0, occ, (i / occRate) * R, R);
+            }
+            running[t[i] & 0xFF]++;
+        }
+        if (length % occRate == 0) {
+            System.arraycopy(running, 0, occ, (length / occRate) * R, R);
+        }
+        count = new int[R + 1];
+        for (int c = 0; c < R; c++) {
+            count[c + 1] = count[c] + running[c];
+        }
+
+        // LF of every row in one pass over t[], the same counting as BurrowsWheeler.constructNextArray
+        int[] lf = new int[length];
+        int[] seen = count.clone();
+        for (int i = 0; i < length; i++) {
+            lf[i] = seen[t[i] & 0xFF]++;
+        }
+        // if the text is p copies of a shorter string, LF splits into length / p cycles of p rows
+        int period = 0;
+        if (length > 0) {
+            int row = 0;
+            do {
+                row = lf[row];
+                period++;
+            } while (row != 0);
+        }
+
+        int[] rowPosition = new int[length];
+        if (suffixArray != null) {
+            for (int i = 0; i < length; i++) {
+                rowPosition[i] = suffixArray.index(i);
+            }
+        } else if (length > 0) {
+            walk(lf, first, period, rowPosition);
+        }
+
+        // positions are also sampled at every multiple of the period, so that the LF walk
+        // of locate() stops before it could wrap around inside a cycle
+        sampled = new long[(length >>> 6) + 1];
+        for (int i = 0; i < length; i++) {
+            if (rowPosition[i] % saRate == 0 || rowPosition[i] % period == 0) {
+                sampled[i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        rowRank = new int[sampled.length + 1];
+        for (int w = 0; w < sampled.length; w++) {
+            rowRank[w + 1] = rowRank[w] + Long.bitCount(sampled[w]);
+        }
+        positions = new int[rowRank[sampled.length]];
+        for (int i = 0; i < length; i++) {
+            if (isSampled(i)) {
+                positions[sampledRank(i)] = rowPosition[i];
+            }
+        }
+    }
+
+    /**
+     * text position of every row, following LF back from first (position 0);
+     * identical rotations of a periodic text are numbered the way CircularSuffixArray does,
+     * in increasing order of position
+     */
+    private static void walk(int[] lf, int first, int period, int[] rowPosition) {
+        int length = lf.length;
+        // the rows of the cycle through first keep the same offset in their group of equal rotations,
+        // and the smallest of them is that offset
+        int offset = first;
+        for (int row = lf[first]; row != first; row = lf[row]) {
+            offset = Math.min(offset, row);
+        }
+        for (int c = 0; c < length / period; c++) {
+            int start = c * period;
+            int row = first - offset + c;
+            for (int k = 0, pos = start; k < period; k++) {
+                rowPosition[row] = pos;
+                row = lf[row];
+                pos = (pos == start ? start + period : pos) - 1;
+            }
+        }
+    }
+
+    private static byte[] lastColumn(byte[] s, int length, CircularSuffixArray suffixArray) {
+        if (s == null || suffixArray == null || length < 0 || length > s.length
+                || suffixArray.length() != length) {
+            throw new IllegalArgumentException();
+        }
+        byte[] t = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int index = suffixArray.index(i);
+            t[i] = s[index == 0 ? length - 1 : index - 1];
+        }
+        return t;
+    }
+
+    private boolean isSampled(int row) {
+        return (sampled[row >>> 6] & (1L << (row & 63))) != 0;
+    }
+
+    /** number of marked rows before row */
+    private int sampledRank(int row) {
+        long below = sampled[row >>> 6] & ((1L << (row & 63)) - 1);
+        return rowRank[row >>> 6] + Long.bitCount(below);
+    }
+
+    // number of chars in the indexed text
+    public int length() {
+        return length;
+    }
+
+    // number of c in t[0..i)
+    private int rank(int c, int i) {
+        int k = i / occRate;
+        int r = occ[k * R + c];
+        for (int j = k * occRate; j < i; j++) {
+            if ((t[j] & 0xFF) == c) {
+                r++;
+            }
+        }
+        return r;
+    }
+
+    /** LF(row): the row of the text position just before the one of row */
+    private int lf(int row) {
+        int c = t[row] & 0xFF;
+        return count[c] + rank(c, row);
+    }
+
+    /** rows [lo, hi) starting with pattern, as {lo, hi} */
+    private int[] search(byte[] pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException();
+        }
+        int lo = 0;
+        int hi = length;
+        for (int k = pattern.length - 1; k >= 0 && lo < hi; k--) {
+            int c = pattern[k] & 0xFF;
+            lo = count[c] + rank(c, lo);
+            hi = count[c] + rank(c, hi);
+        }
+        return new int[] {lo, Math.max(lo, hi)};
+    }
+
+    // number of (circular) occurrences of pattern
+    public int count(byte[] pattern) {
+        int[] range = search(pattern);
+        return range[1] - range[0];
+    }
+
+    // start positions of the (circular) occurrences of pattern, in increasing order
+    public int[] locate(byte[] pattern) {
+        int[] range = search(pattern);
+        int[] result = new int[range[1] - range[0]];
+        for (int row = range[0]; row < range[1]; row++) {
+            int r = row;
+            int steps = 0;
+            while (!isSampled(r)) {
+                r = lf(r);
+                steps++;
+            }
+            result[row - range[0]] = positions[sampledRank(r)] + steps;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // unit testing
+    public static void main(String[] args) {
+        byte[] s = "ABRACADABRA!".getBytes(StandardCharsets.US_ASCII);
+        byte[] t = new byte[s.length];
+        int first = BurrowsWheeler.transform(s, t);
+        FMIndex index = new FMIndex(t, t.length, first, 4, 3);
+        FMIndex direct = new FMIndex(s, s.length, new CircularSuffixArray(s), 4, 3);
+        for (String p : new String[] {"ABRA", "A", "BRA", "CAD", "!AB", "XYZ", ""}) {
+            byte[] pattern = p.getBytes(StandardCharsets.US_ASCII);
+            System.out.println("\"" + p + "\" count: " + index.count(pattern)
+                    + " at " + Arrays.toString(index.locate(pattern))
+                    + ", from suffix array: " + Arrays.toString(direct.locate(pattern)));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Canonical Huffman coding of int symbols over in-memory buffers.
+ * Only the code length of every symbol is stored (one byte each), both sides rebuild
+ * the same canonical codes from them: shorter codes first, ties broken by symbol.
+ * Code lengths are capped at MAX_LENGTH the way bzip2 does it:
+ * if the tree gets too deep, the frequencies are flattened and the tree is rebuilt.
+ * Encoded layout: [alphabetSize bytes of code lengths][bits, most significant first, padded to a byte]
+ */
+public final class HuffmanCoder {
+
+    public static final int MAX_LENGTH = 20;
+
+    private HuffmanCoder() { }
+
+    // encode symbols[0..count), each in [0, alphabetSize), returns the encoded bytes
+    public static byte[] encode(int[] symbols, int count, int alphabetSize) {
+        if (symbols == null || count < 0 || count > symbols.length || alphabetSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int[] freq = new int[alphabetSize];
+        for (int i = 0; i < count; i++) {
+            freq[symbols[i]]++;
+        }
+        int[] lengths = codeLengths(freq);
+        int[] codes = canonicalCodes(lengths);
+
+        long bits = 0;
+        for (int s = 0; s < alphabetSize; s++) {
+            bits += (long) freq[s] * lengths[s];
+        }
+        byte[] out = new byte[alphabetSize + (int) ((bits + 7) >>> 3)];
+        for (int s = 0; s < alphabetSize; s++) {
+            out[s] = (byte) lengths[s];
+        }
+
+        // bits are collected in a long and flushed a byte at a time
+        int pos = alphabetSize;
+        long buffer = 0;
+        int buffered = 0;
+        for (int i = 0; i < count; i++) {
+            int s = symbols[i];
+            buffer = (buffer << lengths[s]) | codes[s];
+            buffered += lengths[s];
+            while (buffered >= 8) {
+                buffered -= 8;
+                out[pos++] = (byte) (buffer >>> buffered);
+            }
+        }
+        if (buffered > 0) {
+            out[pos] = (byte) (buffer << (8 - buffered));
+        }
+        return out;
+    }
+
+    /**
+     * decode count symbols from in[off..off + length) into out[],
+     * where alphabetSize must match the one given to encode
+     */
+    public static void decode(byte[] in, int off, int length, int alphabetSize, int[] out, int count) {
+        if (in == null || out == null || off < 0 || length < alphabetSize || off + length > in.length
+                || count < 0 || count > out.length) {
+            throw new IllegalArgumentException();
+        }
+        int[] lengths = new int[alphabetSize];
+        for (int s = 0; s < alphabetSize; s++) {
+            lengths[s] = in[off + s] & 0xFF;
+            if (lengths[s] > MAX_LENGTH) {
+                throw new IllegalArgumentException("bad code length " + lengths[s]);
+            }
+        }
+
+        // symbols in canonical order, with where each length starts and its first code
+        int[] countOf = new int[MAX_LENGTH + 1];
+        for (int s = 0; s < alphabetSize; s++) {
+            countOf[lengths[s]]++;
+        }
+        countOf[0] = 0;
+        int[] offset = new int[MAX_LENGTH + 2];
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            offset[len + 1] = offset[len] + countOf[len];
+        }
+        int[] sorted = new int[offset[MAX_LENGTH + 1]];
+        int[] next = offset.clone();
+        for (int s = 0; s < alphabetSize; s++) {
+            if (lengths[s] > 0) {
+                sorted[next[lengths[s]]++] = s;
+            }
+        }
+        int[] firstCode = new int[MAX_LENGTH + 1];
+        int code = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            code = (code + countOf[len - 1]) << 1;
+            firstCode[len] = code;
+        }
+
+        int pos = off + alphabetSize;
+        int end = off + length;
+        int bit = 7;
+        for (int i = 0; i < count; i++) {
+            int c = 0;
+            int len = 0;
+            while (true) {
+                if (pos == end || len == MAX_LENGTH) {
+                    throw new IllegalArgumentException("corrupt Huffman data");
+                }
+                c = (c << 1) | ((in[pos] >>> bit) & 1);
+                if (--bit < 0) {
+                    bit = 7;
+                    pos++;
+                }
+                len++;
+                int k = c - firstCode[len];
+                if (k < countOf[len]) {
+                    out[i] = sorted[offset[len] + k];
+                    break;
+                }
+            }
+        }
+    }
+
+    /** code length of every symbol, 0 for symbols that never occur */
+    private static int[] codeLengths(int[] freq) {
+        int[] weight = freq.clone();
+        while (true) {
+            int[] lengths = buildLengths(weight);
+            int max = 0;
+            for (int len : lengths) {
+                max = Math.max(max, len);
+            }
+            if (max <= MAX_LENGTH) {
+                return lengths;
+            }
+            for (int s = 0; s < weight.length; s++) {
+                if (weight[s] > 0) {
+                    weight[s] = 1 + weight[s] / 2;
+                }
+            }
+        }
+    }
+
+    /**
+     * Huffman's algorithm on a priority queue of (weight, node) packed into a long,
+     * so ties are broken by node number and both sides get the same tree
+     */
+    private static int[] buildLengths(int[] weight) {
+        int r = weight.length;
+        int[] lengths = new int[r];
+        int[] parent = new int[2 * r];
+        PriorityQueue<Long> pq = new PriorityQueue<>();
+        for (int s = 0; s < r; s++) {
+            if (weight[s] > 0) {
+                pq.add(((long) weight[s] << 32) | s);
+            }
+        }
+        if (pq.size() == 1) {
+            lengths[(int) (pq.remove() & 0xFFFFFFFFL)] = 1;
+            return lengths;
+        }
+        int node = r;
+        while (pq.size() > 1) {
+            long a = pq.remove();
+            long b = pq.remove();
+            parent[(int) (a & 0xFFFFFFFFL)] = node;
+            parent[(int) (b & 0xFFFFFFFFL)] = node;
+            pq.add((((a >>> 32) + (b >>> 32)) << 32) | node);
+            node++;
+        }
+        int root = node - 1;
+        for (int s = 0; s < r; s++) {
+            if (weight[s] > 0) {
+                int depth = 0;
+                for (int x = s; x != root; x = parent[x]) {
+                    depth++;
+                }
+                lengths[s] = depth;
+            }
+        }
+        return lengths;
+    }
+
+    /** canonical code of every symbol, given the code lengths */
+    private static int[] canonicalCodes(int[] lengths) {
+        int[] countOf = new int[MAX_LENGTH + 1];
+        for (int len : lengths) {
+            countOf[len]++;
+        }
+        countOf[0] = 0;
+        int[] nextCode = new int[MAX_LENGTH + 1];
+        int code = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            code = (code + countOf[len - 1]) << 1;
+            nextCode[len] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int s = 0; s < lengths.length; s++) {
+            if (lengths[s] > 0) {
+                codes[s] = nextCode[lengths[s]]++;
+            }
+        }
+        return codes;
+    }
+}
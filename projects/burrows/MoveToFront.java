@@ -1,52 +1,182 @@
-import edu.princeton.cs.algs4.BinaryStdIn;
 import edu.princeton.cs.algs4.BinaryStdOut;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class MoveToFront {
 
     private static final int R = 256;
 
+    /** bytes read from standard input per call to the bulk codec */
+    private static final int CHUNK = 1 << 13;
+
+    /** bytes mapped at a time in file mode */
+    private static final int MAP_CHUNK = 1 << 20;
+
+    /** shifts shorter than this are done by hand instead of System.arraycopy */
+    private static final int SHORT_SHIFT = 16;
+
     // apply move-to-front encoding, reading from standard input and writing to standard output
     public static void encode() {
-        List<Character> allAscii = new ArrayList<>(R);
-        initialAscii(allAscii);
-        while (!BinaryStdIn.isEmpty()) {
-            char c = BinaryStdIn.readChar();
-            int index = allAscii.indexOf(c);
-            allAscii.remove(index);
-            allAscii.add(0, c);
-            BinaryStdOut.write(index, 8);
+        byte[] alphabet = identity();
+        byte[] in = new byte[CHUNK];
+        byte[] out = new byte[CHUNK];
+        int n;
+        while ((n = BurrowsIO.readBlock(in)) > 0) {
+            encode(alphabet, in, 0, n, out);
+            BurrowsIO.writeBytes(out, n);
         }
         BinaryStdOut.close();
     }
 
-    private static void initialAscii(List<Character> allAscii) {
-        for (int i = 0; i < R; i++) {
-            allAscii.add(i, (char) i);
-        }
-    }
-
     // apply move-to-front decoding, reading from standard input and writing to standard output
     public static void decode() {
-        List<Character> allAscii = new ArrayList<>(R);
-        initialAscii(allAscii);
-        while (!BinaryStdIn.isEmpty()) {
-            int index = BinaryStdIn.readChar();
-            char c = allAscii.get(index);
-            allAscii.remove(index);
-            allAscii.add(0, c);
-            BinaryStdOut.write(c);
+        byte[] alphabet = identity();
+        byte[] in = new byte[CHUNK];
+        byte[] out = new byte[CHUNK];
+        int n;
+        while ((n = BurrowsIO.readBlock(in)) > 0) {
+            decode(alphabet, in, 0, n, out);
+            BurrowsIO.writeBytes(out, n);
         }
         BinaryStdOut.close();
     }
 
+    // apply move-to-front encoding from file to file
+    public static void encode(Path input, Path output) throws IOException {
+        code(input, output, true);
+    }
+
+    // apply move-to-front decoding from file to file
+    public static void decode(Path input, Path output) throws IOException {
+        code(input, output, false);
+    }
+
+    /**
+     * Move-to-front keeps the size, so the output file is mapped with the same chunks as the input.
+     * Each chunk is moved between the mappings and the codec with one bulk get and one bulk put:
+     * the byte[] codec is about a third faster than indexing the mapped buffers byte by byte.
+     */
+    private static void code(Path input, Path output, boolean encode) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            byte[] alphabet = identity();
+            byte[] src = new byte[MAP_CHUNK];
+            byte[] dst = new byte[MAP_CHUNK];
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += MAP_CHUNK) {
+                int n = (int) Math.min(MAP_CHUNK, size - pos);
+                MappedByteBuffer from = in.map(FileChannel.MapMode.READ_ONLY, pos, n);
+                MappedByteBuffer to = out.map(FileChannel.MapMode.READ_WRITE, pos, n);
+                from.get(src, 0, n);
+                if (encode) {
+                    encode(alphabet, src, 0, n, dst);
+                } else {
+                    decode(alphabet, src, 0, n, dst);
+                }
+                to.put(dst, 0, n);
+            }
+        }
+    }
+
+    // move-to-front encode in[off..off+len) to out[0..len), starting from the identity alphabet
+    public static void encode(byte[] in, int off, int len, byte[] out) {
+        checkRange(in, off, len, out);
+        encode(identity(), in, off, len, out);
+    }
+
+    // move-to-front decode in[off..off+len) to out[0..len), starting from the identity alphabet
+    public static void decode(byte[] in, int off, int len, byte[] out) {
+        checkRange(in, off, len, out);
+        decode(identity(), in, off, len, out);
+    }
+
+    /**
+     * The alphabet is a 256-entry byte[] kept in move-to-front order,
+     * so nothing is boxed and nothing is allocated per byte.
+     * Searching for c and shifting the entries in front of it down by one
+     * is done in the same pass: each entry passed over is moved into the slot behind it.
+     * After a Burrows-Wheeler transform most indices are small, so the pass is short.
+     */
+    private static void encode(byte[] alphabet, byte[] in, int off, int len, byte[] out) {
+        long start = BurrowsTelemetry.start();
+        int zeros = 0;
+        for (int i = 0; i < len; i++) {
+            byte c = in[off + i];
+            byte prev = alphabet[0];
+            if (prev == c) {
+                out[i] = 0;
+                zeros++;
+                continue;
+            }
+            int index = 1;
+            byte tmp;
+            while ((tmp = alphabet[index]) != c) {
+                alphabet[index++] = prev;
+                prev = tmp;
+            }
+            alphabet[index] = prev;
+            alphabet[0] = c;
+            out[i] = (byte) index;
+        }
+        BurrowsTelemetry.record(BurrowsTelemetry.Stage.MTF_ENCODE, start, len, len, 0, zeros);
+    }
+
+    /**
+     * The index is known up front here, so long shifts can go through System.arraycopy,
+     * while short ones, the common case, are cheaper done by hand.
+     */
+    private static void decode(byte[] alphabet, byte[] in, int off, int len, byte[] out) {
+        long start = BurrowsTelemetry.start();
+        int zeros = 0;
+        for (int i = 0; i < len; i++) {
+            int index = in[off + i] & 0xFF;
+            byte c = alphabet[index];
+            if (index == 0) {
+                zeros++;
+            } else if (index < SHORT_SHIFT) {
+                for (int j = index; j > 0; j--) {
+                    alphabet[j] = alphabet[j - 1];
+                }
+            } else {
+                System.arraycopy(alphabet, 0, alphabet, 1, index);
+            }
+            alphabet[0] = c;
+            out[i] = c;
+        }
+        BurrowsTelemetry.record(BurrowsTelemetry.Stage.MTF_DECODE, start, len, len, 0, zeros);
+    }
+
+    private static void checkRange(byte[] in, int off, int len, byte[] out) {
+        if (in == null || out == null || off < 0 || len < 0 || off + len > in.length || len > out.length) {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    private static byte[] identity() {
+        byte[] alphabet = new byte[R];
+        for (int i = 0; i < R; i++) {
+            alphabet[i] = (byte) i;
+        }
+        return alphabet;
+    }
+
     // if args[0] is "-", apply move-to-front encoding
     // if args[0] is "+", apply move-to-front decoding
-    public static void main(String[] args) {
+    // if args[1] and args[2] are given, read the file args[1] and write the file args[2]
+    public static void main(String[] args) throws IOException {
         String sign = args[0];
-        if (sign.equals("-")) {
+        if (args.length > 2) {
+            if (sign.equals("-")) {
+                encode(Path.of(args[1]), Path.of(args[2]));
+            } else if (sign.equals("+")) {
+                decode(Path.of(args[1]), Path.of(args[2]));
+            }
+        } else if (sign.equals("-")) {
             encode();
         } else if (sign.equals("+")) {
             decode();
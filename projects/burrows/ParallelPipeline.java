@@ -0,0 +1,114 @@
+import edu.princeton.cs.algs4.BinaryStdIn;
+import edu.princeton.cs.algs4.BinaryStdOut;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Once the input is cut into blocks, the compression of one block does not depend on any other,
+ * so blocks are compressed concurrently on a ForkJoinPool:
+ * each task runs BurrowsCompressor.compressBlock, i.e. the Burrows-Wheeler transform,
+ * move-to-front, run-length coding of zeros and Huffman coding, on its block.
+ * Tasks are joined in submission order, so frames come out in block order.
+ * At most maxInFlight blocks are read but not yet written: once that many are, the oldest is
+ * written before the next one is read, into the block buffer the oldest no longer needs.
+ * So memory stays at maxInFlight block buffers and their frames, however large the input is.
+ * The output is the same frame format as BurrowsCompressor, so either one can decompress it.
+ */
+public class ParallelPipeline {
+
+    private final ForkJoinPool pool;
+    private final int blockSize;
+    private final int maxInFlight;
+
+    /** bytes to write once a task is done */
+    private static class Block {
+        final byte[] data;
+        final int length;
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    public ParallelPipeline(int blockSize, int parallelism, int maxInFlight) {
+        if (blockSize <= 0 || parallelism <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.blockSize = blockSize;
+        this.maxInFlight = maxInFlight;
+    }
+
+    // compress standard input to standard output, block by block
+    public void encode() {
+        Queue<ForkJoinTask<Block>> inFlight = new ArrayDeque<>();
+        Queue<byte[]> buffers = new ArrayDeque<>();
+        while (!BinaryStdIn.isEmpty()) {
+            byte[] in = inFlight.size() == maxInFlight ? retire(inFlight, buffers) : new byte[blockSize];
+            int length = BurrowsIO.readBlock(in);
+            buffers.add(in);
+            inFlight.add(pool.submit(() -> {
+                byte[] frame = BurrowsCompressor.compressBlock(in, length);
+                return new Block(frame, frame.length);
+            }));
+        }
+        while (!inFlight.isEmpty()) {
+            retire(inFlight, buffers);
+        }
+        BinaryStdOut.close();
+    }
+
+    // decompress the frames written by encode(), from standard input to standard output
+    public void decode() {
+        Queue<ForkJoinTask<Block>> inFlight = new ArrayDeque<>();
+        Queue<byte[]> buffers = new ArrayDeque<>();
+        while (!BinaryStdIn.isEmpty()) {
+            byte[] out = inFlight.size() == maxInFlight ? retire(inFlight, buffers) : new byte[blockSize];
+            byte[] frame = BurrowsCompressor.readFrame();
+            if (BurrowsCompressor.blockLength(frame, 0) > blockSize) {
+                throw new IllegalArgumentException("block larger than " + blockSize);
+            }
+            buffers.add(out);
+            inFlight.add(pool.submit(() -> new Block(out, BurrowsCompressor.decompressBlock(frame, 0, out))));
+        }
+        while (!inFlight.isEmpty()) {
+            retire(inFlight, buffers);
+        }
+        BinaryStdOut.close();
+    }
+
+    // stop the worker threads
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * wait for the oldest task and write its block, returning the block buffer it was given,
+     * buffers holding those of the tasks in flight in the same order
+     */
+    private static byte[] retire(Queue<ForkJoinTask<Block>> inFlight, Queue<byte[]> buffers) {
+        Block block = inFlight.remove().join();
+        BurrowsIO.writeBytes(block.data, block.length);
+        return buffers.remove();
+    }
+
+    // if args[0] is "-", compress; if args[0] is "+", decompress
+    // args[1] is the block size in bytes, args[2] the number of threads (default: all cores)
+    // and args[3] the most blocks in flight (default: twice the threads)
+    public static void main(String[] args) {
+        String sign = args[0];
+        int blockSize = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 2 * threads;
+        ParallelPipeline pipeline = new ParallelPipeline(blockSize, threads, maxInFlight);
+        if (sign.equals("-")) {
+            pipeline.encode();
+        } else if (sign.equals("+")) {
+            pipeline.decode();
+        }
+        pipeline.shutdown();
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * Sorts the cyclic shifts of a text by prefix doubling (Manber and Myers).
+ * After round h every shift is ranked by its first 2^h chars, and the ranks of
+ * round h + 1 are found by radix sorting the pairs (rank[i], rank[i + 2^h]).
+ * So at most log2(n) linear passes over int[] arrays are needed however repetitive
+ * the text is, and it stops as soon as all ranks are distinct.
+ */
+public final class PrefixDoubling {
+
+    private PrefixDoubling() { }
+
+    /**
+     * returns the cyclic shifts of t[0..n) in sorted order, where every t[i] is in [0, upper].
+     * Shifts that are equal keep an unspecified relative order,
+     * so callers wanting a total order should pass a primitive text.
+     */
+    public static int[] sort(int[] t, int n, int upper) {
+        if (n < 0 || n > t.length || upper < 0) {
+            throw new IllegalArgumentException();
+        }
+        int[] p = new int[n];
+        if (n == 0) {
+            return p;
+        }
+        int[] c = new int[n];
+        int[] count = new int[Math.max(upper + 1, n)];
+
+        // round 0: key-indexed counting on the chars themselves
+        for (int i = 0; i < n; i++) {
+            count[t[i]]++;
+        }
+        for (int i = 1; i <= upper; i++) {
+            count[i] += count[i - 1];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            p[--count[t[i]]] = i;
+        }
+        int classes = 1;
+        c[p[0]] = 0;
+        for (int i = 1; i < n; i++) {
+            if (t[p[i]] != t[p[i - 1]]) {
+                classes++;
+            }
+            c[p[i]] = classes - 1;
+        }
+
+        int[] pn = new int[n];
+        int[] cn = new int[n];
+        for (int h = 1; h < n && classes < n; h <<= 1) {
+            // p is sorted by the first h chars, so shifting every entry back by h
+            // gives the order by the second half; a stable pass on the first half finishes it
+            for (int i = 0; i < n; i++) {
+                int j = p[i] - h;
+                pn[i] = j < 0 ? j + n : j;
+            }
+            Arrays.fill(count, 0, classes, 0);
+            for (int i = 0; i < n; i++) {
+                count[c[pn[i]]]++;
+            }
+            for (int i = 1; i < classes; i++) {
+                count[i] += count[i - 1];
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                p[--count[c[pn[i]]]] = pn[i];
+            }
+
+            classes = 1;
+            cn[p[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int cur = p[i] + h;
+                int prev = p[i - 1] + h;
+                if (c[p[i]] != c[p[i - 1]]
+                        || c[cur < n ? cur : cur - n] != c[prev < n ? prev : prev - n]) {
+                    classes++;
+                }
+                cn[p[i]] = classes - 1;
+            }
+            int[] tmp = c;
+            c = cn;
+            cn = tmp;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Suffix array construction by induced sorting (SA-IS, Nong, Zhang and Chan).
+ * Runs in linear time and works directly on an int[] text,
+ * so it can also sort the reduced string of LMS substrings in the recursion.
+ * Suffixes are ordered in the usual way: a proper prefix is smaller.
+ */
+public final class SAIS {
+
+    private SAIS() { }
+
+    /**
+     * returns the suffix array of s[0..n), where every s[i] is in [0, upper]
+     */
+    public static int[] sort(int[] s, int n, int upper) {
+        if (n < 0 || n > s.length || upper < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (n == 0) {
+            return new int[0];
+        }
+        if (n == 1) {
+            return new int[] {0};
+        }
+        if (n == 2) {
+            return s[0] < s[1] ? new int[] {0, 1} : new int[] {1, 0};
+        }
+
+        int[] sa = new int[n];
+
+        // ls[i] is true iff suffix i is S-type, the (virtual) sentinel makes the last one L-type
+        boolean[] ls = new boolean[n];
+        for (int i = n - 2; i >= 0; i--) {
+            ls[i] = (s[i] == s[i + 1]) ? ls[i + 1] : (s[i] < s[i + 1]);
+        }
+
+        // sumL[c] is the start of bucket c, sumS[c] is the start of the S-type part of bucket c
+        int[] sumL = new int[upper + 2];
+        int[] sumS = new int[upper + 2];
+        for (int i = 0; i < n; i++) {
+            if (!ls[i]) {
+                sumS[s[i]]++;
+            } else {
+                sumL[s[i] + 1]++;
+            }
+        }
+        for (int i = 0; i <= upper; i++) {
+            sumS[i] += sumL[i];
+            if (i < upper) {
+                sumL[i + 1] += sumS[i];
+            }
+        }
+
+        // lmsMap[i] is the rank of position i among the LMS positions, or -1
+        int[] lmsMap = new int[n + 1];
+        Arrays.fill(lmsMap, -1);
+        int m = 0;
+        for (int i = 1; i < n; i++) {
+            if (!ls[i - 1] && ls[i]) {
+                lmsMap[i] = m++;
+            }
+        }
+        int[] lms = new int[m];
+        for (int i = 1, k = 0; i < n; i++) {
+            if (!ls[i - 1] && ls[i]) {
+                lms[k++] = i;
+            }
+        }
+
+        int[] buf = new int[upper + 2];
+        induce(s, n, upper, ls, sumL, sumS, lms, m, sa, buf);
+
+        if (m > 0) {
+            int[] sortedLms = new int[m];
+            for (int i = 0, k = 0; i < n; i++) {
+                if (lmsMap[sa[i]] != -1) {
+                    sortedLms[k++] = sa[i];
+                }
+            }
+
+            // name the LMS substrings, equal substrings get equal names
+            int[] recS = new int[m];
+            int recUpper = 0;
+            recS[lmsMap[sortedLms[0]]] = 0;
+            for (int i = 1; i < m; i++) {
+                int l = sortedLms[i - 1];
+                int r = sortedLms[i];
+                int endL = (lmsMap[l] + 1 < m) ? lms[lmsMap[l] + 1] : n;
+                int endR = (lmsMap[r] + 1 < m) ? lms[lmsMap[r] + 1] : n;
+                boolean same = true;
+                if (endL - l != endR - r) {
+                    same = false;
+                } else {
+                    while (l < endL && s[l] == s[r]) {
+                        l++;
+                        r++;
+                    }
+                    if (l == n || s[l] != s[r]) {
+                        same = false;
+                    }
+                }
+                if (!same) {
+                    recUpper++;
+                }
+                recS[lmsMap[sortedLms[i]]] = recUpper;
+            }
+
+            int[] recSa = sort(recS, m, recUpper);
+            for (int i = 0; i < m; i++) {
+                sortedLms[i] = lms[recSa[i]];
+            }
+            induce(s, n, upper, ls, sumL, sumS, sortedLms, m, sa, buf);
+        }
+        return sa;
+    }
+
+    /**
+     * place the given LMS suffixes at the end of their buckets,
+     * then induce the L-type suffixes left to right and the S-type suffixes right to left
+     */
+    private static void induce(int[] s, int n, int upper, boolean[] ls, int[] sumL, int[] sumS,
+                               int[] lms, int m, int[] sa, int[] buf) {
+        Arrays.fill(sa, -1);
+
+        System.arraycopy(sumS, 0, buf, 0, upper + 1);
+        for (int i = 0; i < m; i++) {
+            int d = lms[i];
+            if (d == n) {
+                continue;
+            }
+            sa[buf[s[d]]++] = d;
+        }
+
+        System.arraycopy(sumL, 0, buf, 0, upper + 1);
+        sa[buf[s[n - 1]]++] = n - 1;
+        for (int i = 0; i < n; i++) {
+            int v = sa[i];
+            if (v >= 1 && !ls[v - 1]) {
+                sa[buf[s[v - 1]]++] = v - 1;
+            }
+        }
+
+        System.arraycopy(sumL, 0, buf, 0, upper + 2);
+        for (int i = n - 1; i >= 0; i--) {
+            int v = sa[i];
+            if (v >= 1 && ls[v - 1]) {
+                sa[--buf[s[v - 1] + 1]] = v - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Run-length coding of zeros, as bzip2 does after move-to-front:
+ * after a Burrows-Wheeler transform and move-to-front most bytes are 0, in long runs.
+ * A run of r zeros is written in bijective base 2 with the two symbols RUNA (digit 1)
+ * and RUNB (digit 2), least significant digit first, so it takes about log2(r) symbols.
+ * Every other byte v in [1, 255] becomes the symbol v + 1.
+ * So the symbols are in [0, ALPHABET) and there are never more symbols than bytes.
+ */
+public final class ZeroRunLength {
+
+    public static final int RUNA = 0;
+    public static final int RUNB = 1;
+
+    /** number of distinct symbols: RUNA, RUNB and the bytes 1..255 shifted up by one */
+    public static final int ALPHABET = 257;
+
+    private ZeroRunLength() { }
+
+    // encode in[0..length) to out[], returns the number of symbols written
+    public static int encode(byte[] in, int length, int[] out) {
+        if (in == null || out == null || length < 0 || length > in.length || out.length < length) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            int v = in[i] & 0xFF;
+            if (v == 0) {
+                run++;
+                continue;
+            }
+            n = writeRun(run, out, n);
+            run = 0;
+            out[n++] = v + 1;
+        }
+        return writeRun(run, out, n);
+    }
+
+    private static int writeRun(int run, int[] out, int n) {
+        while (run > 0) {
+            if ((run & 1) == 1) {
+                out[n++] = RUNA;
+                run = (run - 1) >> 1;
+            } else {
+                out[n++] = RUNB;
+                run = (run - 2) >> 1;
+            }
+        }
+        return n;
+    }
+
+    // decode in[0..count) to out[], returns the number of bytes written
+    public static int decode(int[] in, int count, byte[] out) {
+        if (in == null || out == null || count < 0 || count > in.length) {
+            throw new IllegalArgumentException();
+        }
+        int n = 0;
+        long run = 0;
+        int digit = 1;
+        for (int i = 0; i < count; i++) {
+            int symbol = in[i];
+            if (symbol == RUNA || symbol == RUNB) {
+                run += (long) (symbol + 1) * digit;
+                digit <<= 1;
+                if (run > out.length - n) {
+                    throw new IllegalArgumentException("run exceeds block");
+                }
+                continue;
+            }
+            n = fill(out, n, (int) run);
+            run = 0;
+            digit = 1;
+            if (symbol >= ALPHABET || n == out.length) {
+                throw new IllegalArgumentException("bad symbol " + symbol);
+            }
+            out[n++] = (byte) (symbol - 1);
+        }
+        return fill(out, n, (int) run);
+    }
+
+    private static int fill(byte[] out, int n, int run) {
+        for (int i = 0; i < run; i++) {
+            out[n++] = 0;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,341 @@
+import edu.princeton.cs.algs4.Picture;
+
+/**
+ * SeamCarver with 4-byte energies and DP costs instead of doubles: with the packed colors and the
+ * spare buffers of the other orientation that is 20 bytes per pixel rather than 32, and the DP
+ * table is read at half the bandwidth.
+ * Energies and costs are ints in one of two precisions, and both run the same DP:
+ * FIXED keeps round(energy * scale), scale being the largest power of two up to 256 for which
+ * no seam cost can overflow, so costs add up exactly and ties are ties of the fixed-point sums;
+ * FLOAT keeps the bits of the float energy, which order the same as the ints for non-negative
+ * values, so only the additions go through float.
+ * Ties go to the leftmost cell as in SeamCarver, so seams are deterministic, and the same as
+ * SeamCarver's unless two paths are within the rounding of each other.
+ * As in SeamCarver, horizontal seams are found on the transposed buffers (see SeamBuffers) and the
+ * DP table is kept between seams, only the cells below a removed seam being recomputed.
+ */
+public class CompactSeamCarver {
+
+    /** how energies and seam costs are stored */
+    public enum Precision { FLOAT, FIXED }
+
+    private static final double BOARDENERGY = 1000;
+
+    /** largest fixed-point scale, 8 fractional bits */
+    private static final int MAX_SCALE = 256;
+
+    private final boolean fixed;
+
+    /** fixed-point units per unit of energy, 1 in FLOAT precision */
+    private final int scale;
+
+    /**
+     * colors, energies and DP costs, pixel (x, y) at y * stride + x, or at x * stride + y
+     * while transposed, and the colors and energies of the other orientation, as in SeamCarver
+     */
+    private int[] color;
+    private int[] energy;
+    private int[] cost;
+    private int stride;
+    private int[] spareColor;
+    private int[] spareEnergy;
+    private int spareStride;
+    private boolean transposed;
+
+    /** cost holds the DP table of the current buffers */
+    private boolean costValid;
+
+    private int width;
+    private int height;
+
+    // create a seam carver object based on the given picture, storing energies in the given precision
+    public CompactSeamCarver(Picture picture, Precision precision) {
+        if (picture == null || precision == null) {
+            throw new IllegalArgumentException();
+        }
+        width = picture.width();
+        height = picture.height();
+        stride = width;
+        spareStride = height;
+        fixed = precision == Precision.FIXED;
+
+        // a seam crosses at most max(width, height) pixels of at most BOARDENERGY each
+        long longest = (long) Math.max(width, height) * (long) BOARDENERGY;
+        int s = MAX_SCALE;
+        while (s > 1 && longest * s > Integer.MAX_VALUE) {
+            s /= 2;
+        }
+        if (fixed && longest * s > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("picture too large for fixed-point costs");
+        }
+        scale = fixed ? s : 1;
+
+        color = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                color[y * stride + x] = picture.getARGB(x, y);
+            }
+        }
+        energy = new int[width * height];
+        cost = new int[width * height];
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                energy[r * stride + c] = bufferEnergy(c, r);
+            }
+        }
+    }
+
+    // current picture, with opaque pixels as SeamCarver.picture()
+    public Picture picture() {
+        Picture copy = new Picture(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                copy.setARGB(x, y, 0xFF000000 | color[index(x, y)]);
+            }
+        }
+        return copy;
+    }
+
+    // width of current picture
+    public int width() {
+        return width;
+    }
+
+    // height of current picture
+    public int height() {
+        return height;
+    }
+
+    // energy of pixel at column x and row y, as stored
+    public double energy(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IllegalArgumentException();
+        }
+        int e = energy[index(x, y)];
+        return fixed ? (double) e / scale : Float.intBitsToFloat(e);
+    }
+
+    private int index(int x, int y) {
+        return transposed ? x * stride + y : y * stride + x;
+    }
+
+    private int rows() {
+        return transposed ? width : height;
+    }
+
+    private int cols() {
+        return transposed ? height : width;
+    }
+
+    /** stored energy of the pixel at column c and row r of the buffers */
+    private int bufferEnergy(int c, int r) {
+        double e = BOARDENERGY;
+        if (c > 0 && c < cols() - 1 && r > 0 && r < rows() - 1) {
+            int p = r * stride + c;
+            e = Math.sqrt(EnergyKernel.Scalar.squareGradient(color[p - 1], color[p + 1])
+                    + EnergyKernel.Scalar.squareGradient(color[p - stride], color[p + stride]));
+        }
+        return fixed ? (int) Math.round(e * scale) : Float.floatToRawIntBits((float) e);
+    }
+
+    /** sum of two stored values */
+    private int add(int a, int b) {
+        return fixed ? a + b : Float.floatToRawIntBits(Float.intBitsToFloat(a) + Float.intBitsToFloat(b));
+    }
+
+    /** switch the buffers to the given orientation, swapping them with the spare ones */
+    private void orient(boolean toTransposed) {
+        if (transposed == toTransposed) {
+            return;
+        }
+        if (spareColor == null) {
+            spareColor = new int[color.length];
+            spareEnergy = new int[energy.length];
+        }
+        SeamBuffers.transpose(color, stride, rows(), cols(), spareColor, spareStride);
+        SeamBuffers.transpose(energy, stride, rows(), cols(), spareEnergy, spareStride);
+        int[] tmp = color;
+        color = spareColor;
+        spareColor = tmp;
+        tmp = energy;
+        energy = spareEnergy;
+        spareEnergy = tmp;
+        int tmpStride = stride;
+        stride = spareStride;
+        spareStride = tmpStride;
+        transposed = toTransposed;
+        costValid = false;
+    }
+
+    // sequence of indices for horizontal seam
+    public int[] findHorizontalSeam() {
+        orient(true);
+        return findSeam();
+    }
+
+    // sequence of indices for vertical seam
+    public int[] findVerticalSeam() {
+        orient(false);
+        return findSeam();
+    }
+
+    /** vertical seam of the buffers; ints compare the same as the values in both precisions */
+    private int[] findSeam() {
+        int rows = rows();
+        int cols = cols();
+        if (!costValid) {
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < cols; j++) {
+                    cost[i * stride + j] = cellCost(i, j, cols);
+                }
+            }
+            costValid = true;
+        }
+
+        int[] seam = new int[rows];
+        int last = (rows - 1) * stride;
+        int j = 0;
+        for (int k = 1; k < cols; k++) {
+            if (cost[last + k] < cost[last + j]) {
+                j = k;
+            }
+        }
+        seam[rows - 1] = j;
+        for (int i = rows - 1; i >= 1; i--) {
+            int up = (i - 1) * stride;
+            int from = Math.max(j - 1, 0);
+            for (int k = from + 1; k <= Math.min(j + 1, cols - 1); k++) {
+                if (cost[up + k] < cost[up + from]) {
+                    from = k;
+                }
+            }
+            j = from;
+            seam[i - 1] = j;
+        }
+        return seam;
+    }
+
+    /** cost of the cheapest path ending at row i, col j, from the costs of row i - 1 */
+    private int cellCost(int i, int j, int cols) {
+        int row = i * stride;
+        if (i == 0) {
+            return energy[row + j];
+        }
+        int up = row - stride + j;
+        int min = cost[up];
+        if (j > 0) {
+            min = Math.min(min, cost[up - 1]);
+        }
+        if (j < cols - 1) {
+            min = Math.min(min, cost[up + 1]);
+        }
+        return add(energy[row + j], min);
+    }
+
+    /**
+     * bring the DP table up to date once seam is removed, recomputing from row to row only the
+     * cells next to the seam and below the cells that changed in the row above, as
+     * SeamCarver.updateCost() does, and every cell of the rows where that is over half of them
+     */
+    private void updateCost(int[] seam, int cols) {
+        int changedLo = Integer.MAX_VALUE;
+        int changedHi = Integer.MIN_VALUE;
+        boolean full = false;
+        for (int i = 0; i < seam.length; i++) {
+            int row = i * stride;
+            int lo = Math.max(0, seam[i] - 2);
+            int hi = Math.min(cols - 1, seam[i] + 1);
+            if (changedLo <= changedHi) {
+                lo = Math.max(0, Math.min(lo, changedLo - 1));
+                hi = Math.min(cols - 1, Math.max(hi, changedHi + 1));
+            }
+            if (full || 2 * (hi - lo + 1) > cols) {
+                full = true;
+                lo = 0;
+                hi = cols - 1;
+            }
+            changedLo = Integer.MAX_VALUE;
+            changedHi = Integer.MIN_VALUE;
+            for (int j = lo; j <= hi; j++) {
+                int c = cellCost(i, j, cols);
+                if (c != cost[row + j]) {
+                    cost[row + j] = c;
+                    changedLo = Math.min(changedLo, j);
+                    changedHi = j;
+                }
+            }
+        }
+    }
+
+    // remove horizontal seam from current picture
+    public void removeHorizontalSeam(int[] seam) {
+        if (seam == null || height <= 1) {
+            throw new IllegalArgumentException();
+        }
+        SeamBuffers.checkSeam(seam, width, height);
+        orient(true);
+        removeSeam(seam);
+        height--;
+        recomputeEnergy(seam);
+    }
+
+    // remove vertical seam from current picture
+    public void removeVerticalSeam(int[] seam) {
+        if (seam == null || width <= 1) {
+            throw new IllegalArgumentException();
+        }
+        SeamBuffers.checkSeam(seam, height, width);
+        orient(false);
+        removeSeam(seam);
+        width--;
+        recomputeEnergy(seam);
+    }
+
+    /** shift the seam out of the buffers and the DP table */
+    private void removeSeam(int[] seam) {
+        int cols = cols();
+        SeamBuffers.shiftOut(seam, stride, cols, color);
+        SeamBuffers.shiftOut(seam, stride, cols, energy);
+        if (costValid) {
+            SeamBuffers.shiftOut(seam, stride, cols, cost);
+        }
+    }
+
+    /** once the seam is out, recompute the energies next to it and the costs they change */
+    private void recomputeEnergy(int[] seam) {
+        int cols = cols();
+        for (int j = 0; j < seam.length; j++) {
+            for (int i = SeamBuffers.firstNear(seam[j]); i <= SeamBuffers.lastNear(seam[j], cols); i++) {
+                energy[j * stride + i] = bufferEnergy(i, j);
+            }
+        }
+        if (costValid) {
+            updateCost(seam, cols);
+        }
+    }
+
+    // unit testing: remove args[1] seams of each direction from the picture args[0] in both precisions,
+    // counting the seams that are the same as SeamCarver's
+    public static void main(String[] args) {
+        Picture picture = new Picture(args[0]);
+        int seams = Integer.parseInt(args[1]);
+        for (Precision precision : Precision.values()) {
+            SeamCarver reference = new SeamCarver(picture);
+            CompactSeamCarver carver = new CompactSeamCarver(picture, precision);
+            int same = 0;
+            long start = System.nanoTime();
+            for (int k = 0; k < seams; k++) {
+                int[] seam = carver.findVerticalSeam();
+                same += java.util.Arrays.equals(seam, reference.findVerticalSeam()) ? 1 : 0;
+                carver.removeVerticalSeam(seam);
+                reference.removeVerticalSeam(seam);
+                seam = carver.findHorizontalSeam();
+                same += java.util.Arrays.equals(seam, reference.findHorizontalSeam()) ? 1 : 0;
+                carver.removeHorizontalSeam(seam);
+                reference.removeHorizontalSeam(seam);
+            }
+            System.out.printf("%-5s %d of %d seams same as SeamCarver, %d ms%n",
+                    precision, same, 2 * seams, (System.nanoTime() - start) / 1000000);
+        }
+    }
+}
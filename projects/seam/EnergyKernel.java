@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * Dual-gradient energy of whole rows of a picture stored as packed ARGB ints, pixel (c, r) at r * stride + c.
+ * Border pixels get SeamCarver's border energy of 1000.
+ * load() picks VectorEnergy, built separately from the optional vector/ source root, when it is on
+ * the class path and the JVM runs with the jdk.incubator.vector module (--add-modules jdk.incubator.vector),
+ * and the scalar loop below otherwise.
+ * Both give exactly the same values: the squared gradients are exact ints and sqrt is correctly rounded.
+ */
+interface EnergyKernel {
+
+    double BORDER_ENERGY = 1000;
+
+    /** energy[r * stride + c] for every column c and every row r in [fromRow, toRow) of a rows x cols picture */
+    void energy(int[] color, int stride, int rows, int cols, int fromRow, int toRow, double[] energy);
+
+    /** the vector kernel if the incubator module is there, the scalar one otherwise */
+    static EnergyKernel load() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (EnergyKernel) Class.forName("VectorEnergy").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // the module is there but VectorEnergy was not built: use the scalar loop
+            }
+        }
+        return new Scalar();
+    }
+
+    /** the plain loop, also used by VectorEnergy for borders and the tail of each row */
+    final class Scalar implements EnergyKernel {
+
+        @Override
+        public void energy(int[] color, int stride, int rows, int cols, int fromRow, int toRow, double[] energy) {
+            for (int r = fromRow; r < toRow; r++) {
+                int row = r * stride;
+                if (r == 0 || r == rows - 1) {
+                    Arrays.fill(energy, row, row + cols, BORDER_ENERGY);
+                    continue;
+                }
+                energy[row] = BORDER_ENERGY;
+                interior(color, stride, row, 1, cols - 1, energy);
+                energy[row + cols - 1] = BORDER_ENERGY;
+            }
+        }
+
+        /** energy of the interior pixels [from, to) of the row starting at color[row] */
+        static void interior(int[] color, int stride, int row, int from, int to, double[] energy) {
+            for (int c = from; c < to; c++) {
+                int p = row + c;
+                int squareGradient = squareGradient(color[p - 1], color[p + 1])
+                        + squareGradient(color[p - stride], color[p + stride]);
+                energy[p] = Math.sqrt(squareGradient);
+            }
+        }
+
+        /** sum over the channels of the squared difference of two packed colors, shared by the carvers */
+        static int squareGradient(int color1, int color2) {
+            int red = ((color1 >> 16) & 0xFF) - ((color2 >> 16) & 0xFF);
+            int green = ((color1 >> 8) & 0xFF) - ((color2 >> 8) & 0xFF);
+            int blue = (color1 & 0xFF) - (color2 & 0xFF);
+            return red * red + green * green + blue * blue;
+        }
+    }
+}
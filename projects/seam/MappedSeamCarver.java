@@ -0,0 +1,481 @@
+import edu.princeton.cs.algs4.Picture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vertical seam carving for pictures too big for the heap, e.g. 40k x 40k scans.
+ * Pixels (one int each) and energies (one double each) live in memory-mapped files in a work
+ * directory, row after row with the original width as stride, mapped in bands of rows since
+ * one mapping is limited to 2 GB. The seam DP streams the rows top to bottom keeping only two
+ * rows of costs, and writes a 2-bit backpointer per cell (left, up, right) to a third mapped file,
+ * which the trace back then reads from the bottom up.
+ * removeVerticalSeam() only queues the seam: the next pass over the rows shifts every row
+ * as it goes by and recomputes the energies next to the seams, so removing costs O(height) and
+ * rows are only rewritten once per pass, whatever the number of seams queued.
+ * The heap holds a few rows and the queued seams, O(width + height), not O(width * height).
+ * Seams, energies and pixels are the same as SeamCarver's.
+ * Only vertical seams: horizontal ones would stream the files column by column.
+ */
+public class MappedSeamCarver implements Closeable {
+
+    private static final double BOARDENERGY = 1000;
+
+    /** largest mapping, in bytes */
+    private static final long MAX_MAP = 1L << 30;
+
+    /** queued seams are applied by a pass without DP once there are this many */
+    private static final int MAX_PENDING = 8;
+
+    /** the energy of whole rows, vectorized when the JVM has jdk.incubator.vector */
+    private static final EnergyKernel KERNEL = EnergyKernel.load();
+
+    private final int stride;
+    private final int height;
+    private int width;
+
+    private final Path pixelFile;
+    private final Path energyFile;
+    private final Path backFile;
+    private final Band pixels;
+    private final Band energies;
+    private final Band backpointers;
+
+    /** removed seams not yet applied to the files, oldest first */
+    private final List<int[]> pending = new ArrayList<>();
+
+    /** rows kept on the heap while streaming */
+    private int[] prev;
+    private int[] cur;
+    private int[] next;
+    private final double[] energyRow;
+    private double[] costPrev;
+    private double[] costCur;
+    private final byte[] backRow;
+    private final int[] dirty;
+
+    /** a file mapped in bands of whole rows of rowBytes bytes */
+    private static final class Band {
+        final MappedByteBuffer[] maps;
+        final int rowsPerMap;
+        final int rowBytes;
+
+        Band(FileChannel channel, int rows, int rowBytes) throws IOException {
+            this.rowBytes = rowBytes;
+            rowsPerMap = (int) Math.max(1, Math.min(rows, MAX_MAP / rowBytes));
+            maps = new MappedByteBuffer[(rows + rowsPerMap - 1) / rowsPerMap];
+            for (int k = 0; k < maps.length; k++) {
+                long start = (long) k * rowsPerMap * rowBytes;
+                long size = (long) Math.min(rowsPerMap, rows - k * rowsPerMap) * rowBytes;
+                maps[k] = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            }
+        }
+
+        ByteBuffer map(int row) {
+            return maps[row / rowsPerMap];
+        }
+
+        /** offset of row in its mapping */
+        int offset(int row) {
+            return (row % rowsPerMap) * rowBytes;
+        }
+    }
+
+    // carve picture out of core, keeping the work files in dir
+    public MappedSeamCarver(Picture picture, Path dir) throws IOException {
+        this(checkPicture(picture).width(), picture.height(), dir);
+        try {
+            int[] row = new int[stride];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = picture.getARGB(x, y);
+                }
+                writePixels(y, row, width);
+            }
+            initEnergy();
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * carve the width x height picture stored in the file argb as one big-endian ARGB int per pixel,
+     * row after row; the file is copied to dir and left as it is
+     */
+    public MappedSeamCarver(Path argb, int width, int height, Path dir) throws IOException {
+        this(checkFile(argb, width, height), height, dir);
+        try (FileChannel in = FileChannel.open(argb, StandardOpenOption.READ)) {
+            for (int y = 0; y < height; y++) {
+                ByteBuffer row = pixels.map(y).duplicate();
+                row.position(pixels.offset(y)).limit(pixels.offset(y) + pixels.rowBytes);
+                long pos = (long) y * pixels.rowBytes;
+                while (row.hasRemaining()) {
+                    if (in.read(row, pos + row.position() - pixels.offset(y)) < 0) {
+                        throw new IOException("file shrank while reading");
+                    }
+                }
+            }
+            initEnergy();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static Picture checkPicture(Picture picture) {
+        if (picture == null) {
+            throw new IllegalArgumentException();
+        }
+        return picture;
+    }
+
+    /** width, once argb is known to hold width x height ints, before any work file is created */
+    private static int checkFile(Path argb, int width, int height) throws IOException {
+        if (argb == null || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (Files.size(argb) != (long) width * height * Integer.BYTES) {
+            throw new IllegalArgumentException("file size is not width * height ints");
+        }
+        return width;
+    }
+
+    /** create and map the work files, deleting them again if that fails */
+    private MappedSeamCarver(int width, int height, Path dir) throws IOException {
+        if (width <= 0 || height <= 0 || dir == null) {
+            throw new IllegalArgumentException();
+        }
+        this.stride = width;
+        this.width = width;
+        this.height = height;
+        Path[] files = new Path[3];
+        try {
+            files[0] = Files.createTempFile(dir, "seam", ".argb");
+            files[1] = Files.createTempFile(dir, "seam", ".energy");
+            files[2] = Files.createTempFile(dir, "seam", ".back");
+            pixels = band(files[0], stride * Integer.BYTES);
+            energies = band(files[1], stride * Double.BYTES);
+            backpointers = band(files[2], (stride + 3) / 4);
+        } catch (IOException | RuntimeException e) {
+            for (Path file : files) {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            throw e;
+        }
+        pixelFile = files[0];
+        energyFile = files[1];
+        backFile = files[2];
+
+        prev = new int[stride];
+        cur = new int[stride];
+        next = new int[stride];
+        energyRow = new double[stride];
+        costPrev = new double[stride];
+        costCur = new double[stride];
+        backRow = new byte[(stride + 3) / 4];
+        dirty = new int[2 * MAX_PENDING];
+    }
+
+    private Band band(Path file, int rowBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Band(channel, height, rowBytes);
+        }
+    }
+
+    /** energies of every row from a sliding window of three pixel rows */
+    private void initEnergy() {
+        int[] window = new int[3 * stride];
+        double[] energy = new double[3 * stride];
+        for (int y = 0; y < height; y++) {
+            if (y == 0 || y == height - 1) {
+                java.util.Arrays.fill(energyRow, 0, width, BOARDENERGY);
+            } else {
+                readPixels(y - 1, window, 0, width);
+                readPixels(y, window, stride, width);
+                readPixels(y + 1, window, 2 * stride, width);
+                KERNEL.energy(window, stride, 3, width, 1, 2, energy);
+                System.arraycopy(energy, stride, energyRow, 0, width);
+            }
+            writeEnergies(y, energyRow, width);
+        }
+    }
+
+    // width of current picture
+    public int width() {
+        return width;
+    }
+
+    // height of current picture
+    public int height() {
+        return height;
+    }
+
+    // energy of pixel at column x and row y
+    public double energy(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            throw new IllegalArgumentException();
+        }
+        flush();
+        return energies.map(y).getDouble(energies.offset(y) + x * Double.BYTES);
+    }
+
+    // current picture, with opaque pixels as SeamCarver.picture(); it must fit in the heap, see export() otherwise
+    public Picture picture() {
+        flush();
+        Picture picture = new Picture(width, height);
+        for (int y = 0; y < height; y++) {
+            readPixels(y, cur, 0, width);
+            for (int x = 0; x < width; x++) {
+                picture.setARGB(x, y, 0xFF000000 | cur[x]);
+            }
+        }
+        return picture;
+    }
+
+    // write the current picture to file as big-endian ARGB ints, row after row
+    public void export(Path file) throws IOException {
+        flush();
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int y = 0; y < height; y++) {
+                ByteBuffer row = pixels.map(y).duplicate();
+                row.position(pixels.offset(y)).limit(pixels.offset(y) + width * Integer.BYTES);
+                while (row.hasRemaining()) {
+                    out.write(row);
+                }
+            }
+        }
+    }
+
+    // sequence of indices for vertical seam
+    public int[] findVerticalSeam() {
+        int last = pass(true);
+        int[] seam = new int[height];
+        int j = last;
+        seam[height - 1] = j;
+        for (int i = height - 1; i >= 1; i--) {
+            int b = backpointers.map(i).get(backpointers.offset(i) + (j >> 2));
+            j += ((b >> ((j & 3) * 2)) & 3) - 1;
+            seam[i - 1] = j;
+        }
+        return seam;
+    }
+
+    // remove vertical seam from current picture
+    public void removeVerticalSeam(int[] seam) {
+        if (seam == null || seam.length != height || width <= 1) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < height; i++) {
+            if (seam[i] < 0 || seam[i] >= width || (i > 0 && Math.abs(seam[i] - seam[i - 1]) > 1)) {
+                throw new IllegalArgumentException();
+            }
+        }
+        if (pending.size() == MAX_PENDING) {
+            flush();
+        }
+        pending.add(seam.clone());
+        width--;
+    }
+
+    /** apply the queued seams to the files */
+    private void flush() {
+        if (!pending.isEmpty()) {
+            pass(false);
+        }
+    }
+
+    /**
+     * One pass over the rows: apply the queued seams and, if dp is set, run the seam DP,
+     * returning the column where the cheapest seam ends.
+     * Rows are loaded one ahead, so when row i is handled the pixel rows i - 1, i and i + 1
+     * are final, which is what the energies next to the seams in row i depend on.
+     */
+    private int pass(boolean dp) {
+        boolean apply = !pending.isEmpty();
+        int cols = width + pending.size();
+        loadRow(0, cur, cols, apply);
+        if (height > 1) {
+            loadRow(1, next, cols, apply);
+        }
+        int best = 0;
+        for (int i = 0; i < height; i++) {
+            readEnergies(i, energyRow, cols);
+            if (apply) {
+                applyToEnergies(i);
+                writeEnergies(i, energyRow, width);
+            }
+            if (dp) {
+                best = costRow(i);
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = next;
+            next = tmp;
+            if (i + 2 < height) {
+                loadRow(i + 2, next, cols, apply);
+            }
+        }
+        pending.clear();
+        return best;
+    }
+
+    /** read pixel row y as it was cols wide, shift the queued seams out of it and write it back */
+    private void loadRow(int y, int[] row, int cols, boolean apply) {
+        readPixels(y, row, 0, cols);
+        if (apply) {
+            for (int[] seam : pending) {
+                int c = seam[y];
+                System.arraycopy(row, c + 1, row, c, --cols - c);
+            }
+            writePixels(y, row, width);
+        }
+    }
+
+    /**
+     * shift the queued seams out of energyRow, the energies of row y, then recompute the cells
+     * next to them, the same cells SeamCarver recomputes after each removal
+     */
+    private void applyToEnergies(int y) {
+        int cols = width + pending.size();
+        int n = 0;
+        for (int[] seam : pending) {
+            int c = seam[y];
+            System.arraycopy(energyRow, c + 1, energyRow, c, --cols - c);
+            int kept = 0;
+            for (int k = 0; k < n; k++) {
+                if (dirty[k] != c) {
+                    dirty[kept++] = dirty[k] > c ? dirty[k] - 1 : dirty[k];
+                }
+            }
+            n = kept;
+            if (c > 0 && n < dirty.length) {
+                dirty[n++] = c - 1;
+            }
+            if (c < cols && n < dirty.length) {
+                dirty[n++] = c;
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            energyRow[dirty[k]] = cellEnergy(dirty[k], y);
+        }
+    }
+
+    /** energy of column x of row y, whose pixel row is cur, between prev and next */
+    private double cellEnergy(int x, int y) {
+        if (x == 0 || x == width - 1 || y == 0 || y == height - 1) {
+            return BOARDENERGY;
+        }
+        int squareGradient = EnergyKernel.Scalar.squareGradient(cur[x - 1], cur[x + 1])
+                + EnergyKernel.Scalar.squareGradient(prev[x], next[x]);
+        return Math.sqrt(squareGradient);
+    }
+
+    /**
+     * costs of row i from energyRow and costPrev, ties going to the leftmost predecessor
+     * as in SeamCarver; writes the backpointers of row i and returns the column of the
+     * cheapest cost in the row
+     */
+    private int costRow(int i) {
+        int best = 0;
+        if (i > 0) {
+            java.util.Arrays.fill(backRow, 0, (width + 3) / 4, (byte) 0);
+        }
+        for (int j = 0; j < width; j++) {
+            double cost = energyRow[j];
+            if (i > 0) {
+                int from = j;
+                double min = costPrev[j];
+                if (j > 0 && costPrev[j - 1] <= min) {
+                    from = j - 1;
+                    min = costPrev[j - 1];
+                }
+                if (j + 1 < width && costPrev[j + 1] < min) {
+                    from = j + 1;
+                    min = costPrev[j + 1];
+                }
+                cost += min;
+                backRow[j >> 2] |= (byte) ((from - j + 1) << ((j & 3) * 2));
+            }
+            costCur[j] = cost;
+            if (cost < costCur[best]) {
+                best = j;
+            }
+        }
+        if (i > 0) {
+            backpointers.map(i).put(backpointers.offset(i), backRow, 0, (width + 3) / 4);
+        }
+        double[] tmp = costPrev;
+        costPrev = costCur;
+        costCur = tmp;
+        return best;
+    }
+
+    private void readPixels(int y, int[] dst, int off, int n) {
+        IntBuffer row = pixels.map(y).asIntBuffer();
+        row.get(pixels.offset(y) / Integer.BYTES, dst, off, n);
+    }
+
+    private void writePixels(int y, int[] src, int n) {
+        IntBuffer row = pixels.map(y).asIntBuffer();
+        row.put(pixels.offset(y) / Integer.BYTES, src, 0, n);
+    }
+
+    private void readEnergies(int y, double[] dst, int n) {
+        DoubleBuffer row = energies.map(y).asDoubleBuffer();
+        row.get(energies.offset(y) / Double.BYTES, dst, 0, n);
+    }
+
+    private void writeEnergies(int y, double[] src, int n) {
+        DoubleBuffer row = energies.map(y).asDoubleBuffer();
+        row.put(energies.offset(y) / Double.BYTES, src, 0, n);
+    }
+
+    // delete the work files
+    @Override
+    public void close() throws IOException {
+        Files.deleteIfExists(pixelFile);
+        Files.deleteIfExists(energyFile);
+        Files.deleteIfExists(backFile);
+    }
+
+    // unit testing: carve args[1] seams from the picture args[0], checking every seam against SeamCarver
+    public static void main(String[] args) throws IOException {
+        Picture picture = new Picture(args[0]);
+        int seams = Integer.parseInt(args[1]);
+        SeamCarver reference = new SeamCarver(picture);
+        try (MappedSeamCarver carver = new MappedSeamCarver(picture, Path.of(System.getProperty("java.io.tmpdir")))) {
+            long start = System.nanoTime();
+            boolean same = true;
+            for (int k = 0; k < seams; k++) {
+                int[] seam = carver.findVerticalSeam();
+                same &= java.util.Arrays.equals(seam, reference.findVerticalSeam());
+                carver.removeVerticalSeam(seam);
+                reference.removeVerticalSeam(seam);
+            }
+            Picture carved = carver.picture();
+            Picture expected = reference.picture();
+            for (int y = 0; y < carved.height(); y++) {
+                for (int x = 0; x < carved.width(); x++) {
+                    same &= carved.getARGB(x, y) == expected.getARGB(x, y)
+                            && carver.energy(x, y) == reference.energy(x, y);
+                }
+            }
+            System.out.printf("%d seams in %d ms, %s as SeamCarver%n",
+                    seams, (System.nanoTime() - start) / 1000000, same ? "same" : "DIFFERENT");
+        }
+    }
+}
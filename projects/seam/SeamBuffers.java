@@ -0,0 +1,89 @@
+/**
+ * The buffer operations of the carvers that keep a picture in flat row-major arrays with a stride,
+ * SeamCarver and CompactSeamCarver: transposing the buffers tile by tile, shifting a vertical seam
+ * out of every row, the pixels whose energy removing it changes, and checking a seam.
+ */
+final class SeamBuffers {
+
+    /** side of the square tiles that transpose() copies at a time */
+    static final int TILE = 32;
+
+    private SeamBuffers() { }
+
+    /**
+     * to[c * toStride + r] = from[r * fromStride + c] for the rows x cols picture in from,
+     * tile by tile so that both the reads and the writes stay within a few cache lines
+     */
+    static void transpose(int[] from, int fromStride, int rows, int cols, int[] to, int toStride) {
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+                    for (int c = c0; c < Math.min(c0 + TILE, cols); c++) {
+                        to[c * toStride + r] = from[r * fromStride + c];
+                    }
+                }
+            }
+        }
+    }
+
+    static void transpose(double[] from, int fromStride, int rows, int cols, double[] to, int toStride) {
+        for (int r0 = 0; r0 < rows; r0 += TILE) {
+            for (int c0 = 0; c0 < cols; c0 += TILE) {
+                for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+                    for (int c = c0; c < Math.min(c0 + TILE, cols); c++) {
+                        to[c * toStride + r] = from[r * fromStride + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /** shift the tail of every row of buffer, cols wide, left by one over the vertical seam, in place */
+    static void shiftOut(int[] seam, int stride, int cols, int[] buffer) {
+        for (int j = 0; j < seam.length; j++) {
+            int p = j * stride + seam[j];
+            System.arraycopy(buffer, p + 1, buffer, p, cols - 1 - seam[j]);
+        }
+    }
+
+    static void shiftOut(int[] seam, int stride, int cols, double[] buffer) {
+        for (int j = 0; j < seam.length; j++) {
+            int p = j * stride + seam[j];
+            System.arraycopy(buffer, p + 1, buffer, p, cols - 1 - seam[j]);
+        }
+    }
+
+    static void shiftOut(int[] seam, int stride, int cols, boolean[] buffer) {
+        for (int j = 0; j < seam.length; j++) {
+            int p = j * stride + seam[j];
+            System.arraycopy(buffer, p + 1, buffer, p, cols - 1 - seam[j]);
+        }
+    }
+
+    /**
+     * once the pixel at column s of a row is shifted out, the energies that change in the row,
+     * now cols wide, are those of columns firstNear(s) to lastNear(s, cols)
+     */
+    static int firstNear(int s) {
+        return Math.max(s - 1, 0);
+    }
+
+    static int lastNear(int s, int cols) {
+        return Math.min(s, cols - 1);
+    }
+
+    /** seam has length columns in [0, bound), adjacent ones at most 1 apart */
+    static void checkSeam(int[] seam, int length, int bound) {
+        if (seam.length != length) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = 0; i < length; i++) {
+            if (seam[i] < 0 || seam[i] >= bound) {
+                throw new IllegalArgumentException();
+            }
+            if (i > 0 && Math.abs(seam[i] - seam[i - 1]) > 1) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+}
@@ -1,18 +1,92 @@
 import edu.princeton.cs.algs4.Picture;
 
-import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
 
 public class SeamCarver {
 
     private static final double BOARDENERGY = 1000;
 
+    /**
+     * parallel mode: the DP goes BAND rows at a time, each band cut into column stripes
+     * of at least MIN_STRIPE columns; narrower pictures run sequentially
+     */
+    private static final int BAND = 16;
+    private static final int MIN_STRIPE = 256;
+
+    /** alpha of the exported pixels */
+    private static final int OPAQUE = 0xFF000000;
+
+    /** pyramid mode: levels are halved until they are at most this many columns wide */
+    private static final int PYRAMID_MIN_COLS = 64;
+
+    /** debug mode, i.e. assertions enabled: pyramid seams are compared with the exact ones */
+    private static final boolean DEBUG = SeamCarver.class.desiredAssertionStatus();
+
+    /** whole-row energy, vectorized when the JVM has jdk.incubator.vector */
+    private static final EnergyKernel KERNEL = EnergyKernel.load();
+
     /**
      * store energy and color for every pixel
      * notice that it's organized by height * width (i.e. row * col)
-     * which is different from Color object
+     * which is different from Color object.
+     * Both are flat arrays: pixel (x, y) is at y * stride + x.
+     * stride is the width of the original picture and never changes,
+     * so removing a seam shifts pixels inside the same buffers instead of allocating new ones.
+     * When transposed is set the buffers hold the transposed picture instead:
+     * pixel (x, y) is at x * stride + y, and stride is the height of the original picture.
+     * Horizontal seams are then vertical seams of the buffers, so both directions run
+     * the same row-major code, and the buffers are only transposed when the direction changes.
+     */
+    private int[] color;
+    private double[] energyPixel;
+    private int stride;
+
+    /** buffers and stride of the other orientation, allocated at the first transpose */
+    private int[] spareColor;
+    private double[] spareEnergyPixel;
+    private int spareStride;
+
+    private boolean transposed;
+
+    /**
+     * minCost[i * stride + j] is the minimum cost of a path ending at row i, col j of the buffers.
+     * It is kept between calls: removing a seam only changes the cells near the seam and the
+     * cone below them, so while costValid is set only those are recomputed, see updateCost().
+     * It belongs to the current orientation and is invalidated when the buffers are transposed.
+     */
+    private double[] minCost;
+    private boolean costValid;
+
+    /**
+     * while trackStale is set, during a batch whose energy budget is spent, staleEnergy marks the
+     * pixels of the buffers whose energy was left out of date; it moves with removeSeam() like minCost
+     */
+    private boolean[] staleEnergy;
+    private boolean trackStale;
+
+    /**
+     * pyramid mode, on while pyramidBand > 0: seams are searched on energies downsampled
+     * 2 x 2 at a time, level after level, then refined back up to full resolution only within
+     * pyramidBand columns of the seam of the level above; pyramidEnergy[l] and pyramidCost[l]
+     * hold level l + 1, pixel (c, r) of a level at r * (columns of the level) + c.
+     * The pyramid is rebuilt from the energies at every use, a full pass, so it only stands in for
+     * the full DP pass the first seam of a new carver or after a change of direction needs, when
+     * turned is set; the seams after it in the same direction build the table and update it incrementally
      */
-    private int[][] color;
-    private double[][] energyPixel;
+    private int pyramidBand;
+    private boolean turned;
+    private double[][] pyramidEnergy;
+    private double[][] pyramidCost;
+
+    /** in debug mode, total energy of the last pyramid seam minus that of the optimal seam */
+    private double seamError = Double.NaN;
+
+    /** what picture() returned since the last removed seam, or null */
+    private Picture snapshot;
 
     /** width of current picture */
     private int width;
@@ -20,49 +94,148 @@ public class SeamCarver {
     /** height of current picture */
     private int height;
 
+    /** runs computeEnergy() and full DP passes in parallel, or null */
+    private final ForkJoinPool pool;
+
     // create a seam carver object based on the given picture
     public SeamCarver(Picture picture) {
+        this(picture, null, null);
+    }
+
+    // create a seam carver object that computes energies and seams on the given pool (sequential if null)
+    public SeamCarver(Picture picture, ForkJoinPool pool) {
+        this(picture, pool, null);
+    }
+
+    /**
+     * a sequential seam carver working in buffers instead of allocating its own;
+     * it owns them until the next carver is built on them
+     */
+    SeamCarver(Picture picture, Buffers buffers) {
+        this(picture, null, buffers);
+    }
+
+    private SeamCarver(Picture picture, ForkJoinPool pool, Buffers buffers) {
         if (picture == null) {
             throw new IllegalArgumentException();
         }
+        this.pool = pool;
 
         width = picture.width();
         height = picture.height();
-
+        stride = width;
+        spareStride = height;
+
+        if (buffers != null) {
+            buffers.ensure(width * height);
+            color = buffers.color;
+            energyPixel = buffers.energyPixel;
+            spareColor = buffers.spareColor;
+            spareEnergyPixel = buffers.spareEnergyPixel;
+            minCost = buffers.minCost;
+        } else {
+            color = new int[height * stride];
+            energyPixel = new double[height * stride];
+        }
         initColor(picture);
-        initEnergy();
+        computeEnergy();
+        // no DP table yet, as after a turn
+        turned = true;
+    }
+
+    /**
+     * the arrays of a carver, which carvers built one after the other can share, see SeamCarverPool;
+     * they only grow, to the largest picture seen, and may be longer than a carver needs
+     */
+    static final class Buffers {
+        private int[] color = new int[0];
+        private int[] spareColor = new int[0];
+        private double[] energyPixel = new double[0];
+        private double[] spareEnergyPixel = new double[0];
+        private double[] minCost = new double[0];
+
+        /** make room for pictures of size pixels */
+        void ensure(int size) {
+            if (color.length < size) {
+                color = new int[size];
+                spareColor = new int[size];
+                energyPixel = new double[size];
+                spareEnergyPixel = new double[size];
+                minCost = new double[size];
+            }
+        }
     }
 
     private void initColor(Picture picture) {
-        color = new int[height][width];
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
 
                 // for java.awt.Color, it's newly updated and use getARGB
                 // but for project test, use getRGB instead to pass
-                color[y][x] = picture.getARGB(x, y);
+                color[y * stride + x] = picture.getARGB(x, y);
             }
         }
     }
 
-    private void initEnergy() {
-        energyPixel = new double[height][width];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                energyPixel[y][x] = energy(x, y);
-            }
+    /** energy of every pixel of the buffers, in either orientation */
+    private void computeEnergy() {
+        int rows = rows();
+        int cols = cols();
+        int parts = parts(rows * cols / MIN_STRIPE / BAND);
+        inParallel(parts, k -> KERNEL.energy(color, stride, rows, cols,
+                k * rows / parts, (k + 1) * rows / parts, energyPixel));
+    }
+
+    /** number of parts to split work into, at most maxParts and one without a pool */
+    private int parts(int maxParts) {
+        if (pool == null) {
+            return 1;
         }
+        return Math.max(1, Math.min(pool.getParallelism(), maxParts));
     }
 
-    // current picture
+    /** run part.accept(k) for k in [0, parts), part 0 in the calling thread, the others on the pool */
+    private void inParallel(int parts, IntConsumer part) {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[parts - 1];
+        for (int k = 1; k < parts; k++) {
+            int p = k;
+            tasks[k - 1] = pool.submit(() -> part.accept(p));
+        }
+        part.accept(0);
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * current picture, built once per removed seam: calls in between return the same Picture,
+     * so it must not be modified; copy it with new Picture(picture()) to edit it.
+     * Pixels are opaque, as with the Color(rgb) it used to be built from and as in image()
+     */
     public Picture picture() {
-        Picture copy = new Picture(width, height);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                copy.set(x, y, new Color(color[y][x]));
+        if (snapshot == null) {
+            snapshot = new Picture(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    snapshot.setARGB(x, y, OPAQUE | color[index(x, y)]);
+                }
             }
         }
-        return copy;
+        return snapshot;
+    }
+
+    // current picture as a new opaque image, copied row by row straight into its pixel array
+    public BufferedImage image() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (!transposed) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(color, y * stride, pixels, y * width, width);
+            }
+        } else {
+            SeamBuffers.transpose(color, stride, width, height, pixels, width);
+        }
+        return image;
     }
 
     // width of current picture
@@ -75,18 +248,40 @@ public class SeamCarver {
         return height;
     }
 
+    /** position of pixel (x, y) in the buffers, in either orientation */
+    private int index(int x, int y) {
+        return transposed ? x * stride + y : y * stride + x;
+    }
+
+    /** number of rows and columns of the buffers */
+    private int rows() {
+        return transposed ? width : height;
+    }
+
+    private int cols() {
+        return transposed ? height : width;
+    }
+
     // energy of pixel at column x and row y
     public double energy(int x, int y) {
         if (!checkInRange(x, y)) {
             throw new IllegalArgumentException();
         }
+        return transposed ? bufferEnergy(y, x) : bufferEnergy(x, y);
+    }
 
-        if (x == 0 || x == width - 1 || y == 0 || y == height - 1) {
+    /**
+     * energy of the pixel at column c and row r of the buffers;
+     * the dual gradient is symmetric, so it is the energy in both orientations
+     */
+    private double bufferEnergy(int c, int r) {
+        if (c == 0 || c == cols() - 1 || r == 0 || r == rows() - 1) {
             return BOARDENERGY;
         }
 
-        double squareXGradient = calculateSquareGradient(color[y][x - 1], color[y][x + 1]);
-        double squareYGradient = calculateSquareGradient(color[y - 1][x], color[y + 1][x]);
+        int p = r * stride + c;
+        double squareXGradient = calculateSquareGradient(color[p - 1], color[p + 1]);
+        double squareYGradient = calculateSquareGradient(color[p - stride], color[p + stride]);
 
         return Math.sqrt(squareXGradient + squareYGradient);
     }
@@ -116,152 +311,393 @@ public class SeamCarver {
         return (rgb) & 0xFF;
     }
 
+    /**
+     * switch the buffers to the given orientation, copying them tile by tile
+     * so that both the reads and the writes stay within a few cache lines
+     */
+    private void orient(boolean toTransposed) {
+        if (transposed == toTransposed) {
+            return;
+        }
+        if (spareColor == null) {
+            spareColor = new int[color.length];
+            spareEnergyPixel = new double[energyPixel.length];
+        }
+        SeamBuffers.transpose(color, stride, rows(), cols(), spareColor, spareStride);
+        SeamBuffers.transpose(energyPixel, stride, rows(), cols(), spareEnergyPixel, spareStride);
+        int[] tmpColor = color;
+        color = spareColor;
+        spareColor = tmpColor;
+        double[] tmpEnergy = energyPixel;
+        energyPixel = spareEnergyPixel;
+        spareEnergyPixel = tmpEnergy;
+        int tmpStride = stride;
+        stride = spareStride;
+        spareStride = tmpStride;
+        transposed = toTransposed;
+        costValid = false;
+        turned = true;
+    }
+
     // sequence of indices for horizontal seam
     public int[] findHorizontalSeam() {
+        orient(true);
+        return findSeam(new int[width]);
+    }
 
-        /** minimum cost path ending at (row i, col j) */
-        double[][] minCost = new double[height][width];
+    // sequence of indices for vertical seam
+    public int[] findVerticalSeam() {
+        orient(false);
+        return findSeam(new int[height]);
+    }
 
-        int[] horizontalSeam = new int[width];
+    /** vertical seam of the buffers, one column index per row, written to seam and returned */
+    private int[] findSeam(int[] seam) {
+        int rows = rows();
+        int cols = cols();
+        if (pyramidBand > 0 && turned && !costValid && cols > PYRAMID_MIN_COLS && rows > 1) {
+            turned = false;
+            return pyramidSeam(seam);
+        }
+        seamError = Double.NaN;
 
-        for (int j = 0; j < width; j++) {
-            for (int i = 0; i < height; i++) {
-                minCost[i][j] = energyPixel[i][j] + minHorizontalEnergyCost(i, j, minCost);
+        if (!costValid) {
+            if (minCost == null) {
+                minCost = new double[energyPixel.length];
+            }
+            int parts = parts(cols / MIN_STRIPE);
+            if (parts == 1) {
+                for (int i = 0; i < rows; i++) {
+                    costRow(minCost, (i - 1) * stride, minCost, i * stride, i, 0, cols, cols);
+                }
+            } else {
+                for (int band = 0; band < rows; band += BAND) {
+                    int r0 = band;
+                    int r1 = Math.min(rows, band + BAND);
+                    inParallel(parts, k -> costTile(r0, r1, k * cols / parts, (k + 1) * cols / parts, cols));
+                }
             }
+            costValid = true;
         }
 
-        // find min value in the last column in minCost[][]
+        // find min value in last row in M[][]
         double min = Double.POSITIVE_INFINITY;
         int minIndex = 0;
-        for (int i = 0; i < height; i++) {
-            if (minCost[i][width - 1] < min) {
-                min = minCost[i][width - 1];
-                minIndex = i;
+        int last = (rows - 1) * stride;
+        for (int j = 0; j < cols; j++) {
+            if (minCost[last + j] < min) {
+                min = minCost[last + j];
+                minIndex = j;
             }
         }
-        horizontalSeam[width - 1] = minIndex;
+        seam[rows - 1] = minIndex;
 
-        // trace back from the last column to form path
-        int i = minIndex;
-        for (int j = width - 1; j >= 1; j--) {
-            i = minHorizontalCost(i, j, minCost);
-            horizontalSeam[j - 1] = i;
+        // trace back from the last row to form path
+        int j = minIndex;
+        for (int i = rows - 1; i >= 1; i--) {
+            j = minCost(i, j, cols);
+            seam[i - 1] = j;
         }
-        return horizontalSeam;
+        return seam;
     }
 
-    /** find pathTo[i][j] given pixel (row i, col j) */
-    private int minHorizontalCost(int i, int j, double[][] minCost) {
-
-        // special case: height == 1: no need to compare
-        if (height == 1) {
-            return i;
+    /**
+     * search seams coarse to fine, refining each level only within band columns on either side
+     * of the seam projected from the level above: the larger the band, the closer to the optimal
+     * seam, which it always is once the band covers the whole picture; 0 (the default) turns it off.
+     * It is only used for the first seam of the carver and after a change of direction: the other seams come from
+     * the incremental DP table, which is exact and cheaper than rebuilding the pyramid
+     */
+    public void setPyramidBand(int band) {
+        if (band < 0) {
+            throw new IllegalArgumentException();
         }
+        pyramidBand = band;
+    }
 
-        if (i == 0) {
-            return minCost[i][j - 1] > minCost[i + 1][j - 1] ? i + 1 : i;
+    /**
+     * in debug mode (java -ea), total energy of the last seam the pyramid found minus that of
+     * the optimal seam in the same direction, 0 when it found an optimal one; NaN when the last seam
+     * found did not come from the pyramid, or without -ea
+     */
+    public double lastSeamError() {
+        return seamError;
+    }
+
+    /** vertical seam of the buffers found coarse to fine, minCost serving as the DP table of level 0 */
+    private int[] pyramidSeam(int[] seam) {
+        int rows = rows();
+        int cols = cols();
+        if (minCost == null) {
+            minCost = new double[energyPixel.length];
+        }
+
+        int levels = 0;
+        for (int c = cols; c > PYRAMID_MIN_COLS; c = (c + 1) / 2) {
+            levels++;
+        }
+        if (pyramidEnergy == null || pyramidEnergy.length < levels) {
+            pyramidEnergy = new double[levels][];
+            pyramidCost = new double[levels][];
+        }
+        int[] levelRows = new int[levels + 1];
+        int[] levelCols = new int[levels + 1];
+        levelRows[0] = rows;
+        levelCols[0] = cols;
+        for (int l = 1; l <= levels; l++) {
+            levelRows[l] = (levelRows[l - 1] + 1) / 2;
+            levelCols[l] = (levelCols[l - 1] + 1) / 2;
+            int size = levelRows[l] * levelCols[l];
+            if (pyramidEnergy[l - 1] == null || pyramidEnergy[l - 1].length < size) {
+                pyramidEnergy[l - 1] = new double[size];
+                pyramidCost[l - 1] = new double[size];
+            }
+            if (l == 1) {
+                downsample(energyPixel, stride, rows, cols, pyramidEnergy[0], levelCols[1]);
+            } else {
+                downsample(pyramidEnergy[l - 2], levelCols[l - 1], levelRows[l - 1], levelCols[l - 1],
+                        pyramidEnergy[l - 1], levelCols[l]);
+            }
         }
-        if (i == height - 1) {
-            return minCost[i - 1][j - 1] > minCost[i][j - 1] ? i : i - 1;
+
+        // the coarsest level is searched whole, every finer one around the seam above
+        int[] lo = new int[rows];
+        int[] hi = new int[rows];
+        java.util.Arrays.fill(hi, 0, levelRows[levels], levelCols[levels] - 1);
+        int[] above = new int[levelRows[levels]];
+        windowSeam(pyramidEnergy[levels - 1], levelCols[levels], pyramidCost[levels - 1], levelCols[levels],
+                levelRows[levels], lo, hi, above);
+        for (int l = levels - 1; l >= 0; l--) {
+            for (int i = 0; i < levelRows[l]; i++) {
+                int center = 2 * above[i / 2];
+                lo[i] = Math.max(0, center - pyramidBand);
+                hi[i] = Math.min(levelCols[l] - 1, center + 1 + pyramidBand);
+            }
+            if (l == 0) {
+                windowSeam(energyPixel, stride, minCost, stride, rows, lo, hi, seam);
+            } else {
+                int[] found = new int[levelRows[l]];
+                windowSeam(pyramidEnergy[l - 1], levelCols[l], pyramidCost[l - 1], levelCols[l],
+                        levelRows[l], lo, hi, found);
+                above = found;
+            }
         }
 
-        int tempMin = minCost[i - 1][j - 1] > minCost[i][j - 1] ? i : i - 1;
-        return minCost[tempMin][j - 1] > minCost[i + 1][j - 1] ? i + 1 : tempMin;
+        if (DEBUG) {
+            double found = 0;
+            for (int i = 0; i < rows; i++) {
+                found += energyPixel[i * stride + seam[i]];
+            }
+            for (int i = 0; i < rows; i++) {
+                costRow(minCost, (i - 1) * stride, minCost, i * stride, i, 0, cols, cols);
+            }
+            double optimal = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < cols; j++) {
+                optimal = Math.min(optimal, minCost[(rows - 1) * stride + j]);
+            }
+            seamError = found - optimal;
+        }
+        return seam;
     }
 
-    /** find disTo[i][j] given pixel (row i, col j) */
-    private double minHorizontalEnergyCost(int i, int j, double[][] minCost) {
-        if (j == 0) {
-            return 0;
+    /** to[r * toStride + c] = mean of the up to 2 x 2 pixels of from at rows 2r, 2r + 1 and columns 2c, 2c + 1 */
+    private static void downsample(double[] from, int fromStride, int rows, int cols, double[] to, int toStride) {
+        for (int r = 0; r < rows; r += 2) {
+            int row = r * fromStride;
+            boolean pair = r + 1 < rows;
+            for (int c = 0; c < cols; c += 2) {
+                double sum = from[row + c];
+                int n = 1;
+                if (c + 1 < cols) {
+                    sum += from[row + c + 1];
+                    n++;
+                }
+                if (pair) {
+                    sum += from[row + fromStride + c];
+                    n++;
+                    if (c + 1 < cols) {
+                        sum += from[row + fromStride + c + 1];
+                        n++;
+                    }
+                }
+                to[(r / 2) * toStride + c / 2] = sum / n;
+            }
         }
+    }
 
-        // special case: height == 1: no need to compare
-        if (height == 1) {
-            return minCost[i][j - 1];
+    /**
+     * seam through the cells lo[i] <= j <= hi[i] of every row i, the same DP as costRow() but with
+     * the cells outside the windows left out; ties go to the leftmost cell as in minCost()
+     */
+    private static void windowSeam(double[] energy, int energyStride, double[] cost, int costStride,
+                                   int rows, int[] lo, int[] hi, int[] seam) {
+        for (int i = 0; i < rows; i++) {
+            for (int j = lo[i]; j <= hi[i]; j++) {
+                double c = energy[i * energyStride + j];
+                if (i > 0) {
+                    double min = Double.POSITIVE_INFINITY;
+                    for (int k = Math.max(j - 1, lo[i - 1]); k <= Math.min(j + 1, hi[i - 1]); k++) {
+                        min = Math.min(min, cost[(i - 1) * costStride + k]);
+                    }
+                    c += min;
+                }
+                cost[i * costStride + j] = c;
+            }
         }
 
-        if (i == 0) {
-            return Math.min(minCost[i][j - 1], minCost[i + 1][j - 1]);
+        int j = lo[rows - 1];
+        for (int k = j + 1; k <= hi[rows - 1]; k++) {
+            if (cost[(rows - 1) * costStride + k] < cost[(rows - 1) * costStride + j]) {
+                j = k;
+            }
         }
-        if (i == height - 1) {
-            return Math.min(minCost[i][j - 1], minCost[i - 1][j - 1]);
+        seam[rows - 1] = j;
+        for (int i = rows - 1; i >= 1; i--) {
+            int from = Math.max(j - 1, lo[i - 1]);
+            for (int k = from + 1; k <= Math.min(j + 1, hi[i - 1]); k++) {
+                if (cost[(i - 1) * costStride + k] < cost[(i - 1) * costStride + from]) {
+                    from = k;
+                }
+            }
+            j = from;
+            seam[i - 1] = j;
         }
-        return Math.min(minCost[i - 1][j - 1], Math.min(minCost[i][j - 1], minCost[i + 1][j - 1]));
     }
 
-
-    // sequence of indices for vertical seam
-    public int[] findVerticalSeam() {
-
-        /** minimum cost path ending at (i, j) */
-        double[][] minCost = new double[height][width];
-
-        int[] verticalSeam = new int[height];
-
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                minCost[i][j] = energyPixel[i][j] + minVerticalEnergyCost(i, j, minCost);
+    /**
+     * out[outBase + j] = minimum cost of a path ending at row i, col j, for j in [lo, hi),
+     * where row i - 1 of the costs is at prev[prevBase + j]
+     */
+    private void costRow(double[] prev, int prevBase, double[] out, int outBase, int i, int lo, int hi, int cols) {
+        int row = i * stride;
+        for (int j = lo; j < hi; j++) {
+            double cost = energyPixel[row + j];
+            if (i > 0) {
+                int up = prevBase + j;
+                if (cols == 1) {
+                    cost += prev[up];
+                } else if (j == 0) {
+                    cost += Math.min(prev[up], prev[up + 1]);
+                } else if (j == cols - 1) {
+                    cost += Math.min(prev[up - 1], prev[up]);
+                } else {
+                    cost += Math.min(prev[up - 1], Math.min(prev[up], prev[up + 1]));
+                }
             }
+            out[outBase + j] = cost;
         }
+    }
 
-        // find min value in last row in M[][]
-        double min = Double.POSITIVE_INFINITY;
-        int minIndex = 0;
-        for (int j = 0; j < width; j++) {
-            if (minCost[height - 1][j] < min) {
-                min = minCost[height - 1][j];
-                minIndex = j;
+    /**
+     * Rows [r0, r1) of minCost for the columns [lo, hi), once row r0 - 1 is complete.
+     * Instead of waiting for the neighbor stripes after every row, the tile also computes
+     * the cells it depends on: a row below r0 needs one more column on each side than the row under it,
+     * so it starts r1 - r0 - 1 columns wider on each side and narrows by one per row.
+     * Those extra cells stay in a private scratch, only [lo, hi) is written to minCost,
+     * so stripes only meet once per band.
+     */
+    private void costTile(int r0, int r1, int lo, int hi, int cols) {
+        int ghost = r1 - r0 - 1;
+        int a = Math.max(0, lo - ghost);
+        int b = Math.min(cols, hi + ghost);
+        double[] prev = new double[b - a];
+        double[] cur = new double[b - a];
+        for (int i = r0; i < r1; i++) {
+            int g = r1 - 1 - i;
+            int from = Math.max(0, lo - g);
+            int to = Math.min(cols, hi + g);
+            if (i == r0) {
+                costRow(minCost, (i - 1) * stride, cur, -a, i, from, to, cols);
+            } else {
+                costRow(prev, -a, cur, -a, i, from, to, cols);
             }
+            System.arraycopy(cur, lo - a, minCost, i * stride + lo, hi - lo);
+            double[] tmp = prev;
+            prev = cur;
+            cur = tmp;
         }
-        verticalSeam[height - 1] = minIndex;
+    }
 
-        // trace back from the last row to form path
-        int j = minIndex;
-        for (int i = height - 1; i >= 1; i--) {
-            j = minVerticalCost(i, j, minCost);
-            verticalSeam[i - 1] = j;
+    /**
+     * Bring minCost up to date after seam was removed from the buffers (cols is the new width).
+     * In row i, a cell can only change if its energy was recomputed, if its three predecessors
+     * were not shifted the same way as itself (both only near seam[i]), or if one of its
+     * predecessors changed. So row i recomputes the hull of [seam[i] - 2, seam[i] + 1] and the
+     * changed cells of row i - 1 widened by one, and keeps track of which values really changed,
+     * which usually stops the cone after a few rows. Once a hull is wider than half a row
+     * the remaining rows are recomputed in full.
+     */
+    private void updateCost(int[] seam, int cols) {
+        int changedLo = Integer.MAX_VALUE;
+        int changedHi = Integer.MIN_VALUE;
+        boolean full = false;
+        for (int i = 0; i < seam.length; i++) {
+            int row = i * stride;
+            int lo = Math.max(0, seam[i] - 2);
+            int hi = Math.min(cols - 1, seam[i] + 1);
+            if (changedLo <= changedHi) {
+                lo = Math.max(0, Math.min(lo, changedLo - 1));
+                hi = Math.min(cols - 1, Math.max(hi, changedHi + 1));
+            }
+            if (full || 2 * (hi - lo + 1) > cols) {
+                full = true;
+                lo = 0;
+                hi = cols - 1;
+            }
+            changedLo = Integer.MAX_VALUE;
+            changedHi = Integer.MIN_VALUE;
+            for (int j = lo; j <= hi; j++) {
+                double cost = energyPixel[row + j] + minEnergyCost(i, j, cols);
+                if (cost != minCost[row + j]) {
+                    minCost[row + j] = cost;
+                    changedLo = Math.min(changedLo, j);
+                    changedHi = j;
+                }
+            }
         }
-        return verticalSeam;
     }
 
     /** find pathTo[i][j] given pixel (row i, col j) */
-    private int minVerticalCost(int i, int j, double[][] minCost) {
+    private int minCost(int i, int j, int cols) {
 
-        // special case: width == 1: no need to compare
-        if (width == 1) {
+        // special case: cols == 1: no need to compare
+        if (cols == 1) {
             return j;
         }
 
+        int up = (i - 1) * stride + j;
         if (j == 0) {
-            return minCost[i - 1][j] > minCost[i - 1][j + 1] ? j + 1 : j;
+            return minCost[up] > minCost[up + 1] ? j + 1 : j;
         }
-        if (j == width - 1) {
-            return minCost[i - 1][j - 1] > minCost[i - 1][j] ? j : j - 1;
+        if (j == cols - 1) {
+            return minCost[up - 1] > minCost[up] ? j : j - 1;
         }
 
-        int tempMin = minCost[i - 1][j - 1] > minCost[i - 1][j] ? j : j - 1;
-        return minCost[i - 1][tempMin] > minCost[i - 1][j + 1] ? j + 1 : tempMin;
+        int tempMin = minCost[up - 1] > minCost[up] ? j : j - 1;
+        return minCost[(i - 1) * stride + tempMin] > minCost[up + 1] ? j + 1 : tempMin;
 
     }
 
     /** find disTo[i][j] given pixel (row i, col j) */
-    private double minVerticalEnergyCost(int i, int j, double[][] minCost) {
+    private double minEnergyCost(int i, int j, int cols) {
         if (i == 0) {
             return 0;
         }
 
-        // special case: width == 1: no need to compare
-        if (width == 1) {
-            return minCost[i - 1][j];
+        int up = (i - 1) * stride + j;
+
+        // special case: cols == 1: no need to compare
+        if (cols == 1) {
+            return minCost[up];
         }
 
         if (j == 0) {
-            return Math.min(minCost[i - 1][j], minCost[i - 1][j + 1]);
+            return Math.min(minCost[up], minCost[up + 1]);
         }
-        if (j == width - 1) {
-            return Math.min(minCost[i - 1][j - 1], minCost[i - 1][j]);
+        if (j == cols - 1) {
+            return Math.min(minCost[up - 1], minCost[up]);
         }
-        return Math.min(minCost[i - 1][j - 1], Math.min(minCost[i - 1][j], minCost[i - 1][j + 1]));
+        return Math.min(minCost[up - 1], Math.min(minCost[up], minCost[up + 1]));
     }
 
     // remove horizontal seam from current picture
@@ -273,39 +709,12 @@ public class SeamCarver {
         if (height <= 1) {
             throw new IllegalArgumentException();
         }
-        checkSeam(seam, width);
+        SeamBuffers.checkSeam(seam, width, height);
 
+        orient(true);
+        removeSeam(seam);
         height = height - 1;
-
-        int[][] newColor = new int[height][width];
-        double[][] newEnergyPixel = new double[height][width];
-
-        // update color[][]
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (j < seam[i]) {
-                    newColor[j][i] = color[j][i];
-                } else {
-                    newColor[j][i] = color[j + 1][i];
-                }
-            }
-        }
-        color = newColor;
-
-        // only recompute the neighbor pixel's energy of removed pixel
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                if (j < seam[i] - 1) {
-                    newEnergyPixel[j][i] = energyPixel[j][i];
-                } else if (j > seam[i]) {
-                    newEnergyPixel[j][i] = energyPixel[j + 1][i];
-                } else {
-                    newEnergyPixel[j][i] = energy(i, j);
-                }
-            }
-
-        }
-        energyPixel = newEnergyPixel;
+        recomputeEnergy(seam);
     }
 
 
@@ -319,68 +728,264 @@ public class SeamCarver {
             throw new IllegalArgumentException();
         }
 
-        checkSeam(seam, height);
+        SeamBuffers.checkSeam(seam, height, width);
 
+        orient(false);
+        removeSeam(seam);
         width = width - 1;
+        recomputeEnergy(seam);
+    }
 
-        int[][] newColor = new int[height][width];
-        double[][] newEnergyPixel = new double[height][width];
+    // remove k vertical seams, each the one findVerticalSeam() would return at that point
+    public void removeVerticalSeams(int k) {
+        removeVerticalSeams(k, Integer.MAX_VALUE);
+    }
 
-        // update color[][]
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                if (i < seam[j]) {
-                    newColor[j][i] = color[j][i];
-                } else {
-                    newColor[j][i] = color[j][i + 1];
+    /**
+     * remove k vertical seams, recomputing at most energyBudget pixel energies along them;
+     * once the budget is spent the pixels next to the next seams keep their old energies,
+     * so the seams that follow are approximate, and those energies are recomputed at the end
+     */
+    public void removeVerticalSeams(int k, int energyBudget) {
+        if (k < 0 || k >= width || energyBudget < 0) {
+            throw new IllegalArgumentException();
+        }
+        orient(false);
+        removeSeams(k, energyBudget);
+    }
+
+    // remove k horizontal seams, each the one findHorizontalSeam() would return at that point
+    public void removeHorizontalSeams(int k) {
+        removeHorizontalSeams(k, Integer.MAX_VALUE);
+    }
+
+    // remove k horizontal seams, recomputing at most energyBudget pixel energies, see removeVerticalSeams()
+    public void removeHorizontalSeams(int k, int energyBudget) {
+        if (k < 0 || k >= height || energyBudget < 0) {
+            throw new IllegalArgumentException();
+        }
+        orient(true);
+        removeSeams(k, energyBudget);
+    }
+
+    // carve the picture down to targetWidth x targetHeight, vertical seams first
+    public void carveToSize(int targetWidth, int targetHeight) {
+        carveToSize(targetWidth, targetHeight, Integer.MAX_VALUE);
+    }
+
+    // carve the picture down to targetWidth x targetHeight, with an energy budget per direction
+    public void carveToSize(int targetWidth, int targetHeight, int energyBudget) {
+        if (targetWidth < 1 || targetWidth > width || targetHeight < 1 || targetHeight > height) {
+            throw new IllegalArgumentException();
+        }
+        removeVerticalSeams(width - targetWidth, energyBudget);
+        removeHorizontalSeams(height - targetHeight, energyBudget);
+    }
+
+    /**
+     * remove k vertical seams of the buffers in a row, with one seam array for all of them
+     * and no validation since findSeam() only returns valid seams
+     */
+    private void removeSeams(int k, int energyBudget) {
+        int[] seam = new int[rows()];
+        for (int n = 0; n < k; n++) {
+            findSeam(seam);
+            removeSeam(seam);
+            if (transposed) {
+                height--;
+            } else {
+                width--;
+            }
+            if (energyBudget >= 2 * seam.length) {
+                energyBudget -= 2 * seam.length;
+                recomputeEnergy(seam);
+            } else {
+                markStale(seam);
+                if (costValid) {
+                    updateCost(seam, cols());
                 }
             }
         }
-        color = newColor;
+        if (trackStale) {
+            recomputeStale();
+            costValid = false;
+        }
+    }
 
-        // only recompute the neighbor pixel's energy of removed pixel
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                if (i < seam[j] - 1) {
-                    newEnergyPixel[j][i] = energyPixel[j][i];
-                } else if (i > seam[j]) {
-                    newEnergyPixel[j][i] = energyPixel[j][i + 1];
-                } else {
-                    newEnergyPixel[j][i] = energy(i, j);
+    /** mark the pixels recomputeEnergy() would have recomputed for seam */
+    private void markStale(int[] seam) {
+        if (!trackStale) {
+            if (staleEnergy == null || staleEnergy.length < color.length) {
+                staleEnergy = new boolean[color.length];
+            }
+            trackStale = true;
+        }
+        int cols = cols();
+        for (int j = 0; j < seam.length; j++) {
+            for (int i = SeamBuffers.firstNear(seam[j]); i <= SeamBuffers.lastNear(seam[j], cols); i++) {
+                staleEnergy[j * stride + i] = true;
+            }
+        }
+    }
+
+    /**
+     * recompute the energies marked stale, and only those, then stop tracking;
+     * marks shifted past the last column are cleared up to the stride
+     */
+    private void recomputeStale() {
+        int rows = rows();
+        int cols = cols();
+        for (int r = 0; r < rows; r++) {
+            int row = r * stride;
+            for (int c = 0; c < stride; c++) {
+                if (staleEnergy[row + c]) {
+                    staleEnergy[row + c] = false;
+                    if (c < cols) {
+                        energyPixel[row + c] = bufferEnergy(c, r);
+                    }
                 }
             }
         }
-        energyPixel = newEnergyPixel;
+        trackStale = false;
+    }
+
+    /** shift the tail of every row of the buffers (and of minCost) left by one over the seam, in place */
+    private void removeSeam(int[] seam) {
+        snapshot = null;
+        int cols = cols();
+        SeamBuffers.shiftOut(seam, stride, cols, color);
+        SeamBuffers.shiftOut(seam, stride, cols, energyPixel);
+        if (costValid) {
+            SeamBuffers.shiftOut(seam, stride, cols, minCost);
+        }
+        if (trackStale) {
+            SeamBuffers.shiftOut(seam, stride, cols, staleEnergy);
+        }
+    }
+
+    /** only recompute the neighbor pixel's energy of removed pixel, once the seam is out */
+    private void recomputeEnergy(int[] seam) {
+        int cols = cols();
+        for (int j = 0; j < seam.length; j++) {
+            for (int i = SeamBuffers.firstNear(seam[j]); i <= SeamBuffers.lastNear(seam[j], cols); i++) {
+                energyPixel[j * stride + i] = bufferEnergy(i, j);
+            }
+        }
+        if (costValid) {
+            updateCost(seam, cols);
+        }
     }
 
     private boolean checkInRange(int x, int y) {
         return (x >= 0) && (x < width) && (y >= 0) && (y < height);
     }
 
-    private void checkSeam(int[] seam, int seamLength) {
-
-        if (seam.length != seamLength) {
-            throw new IllegalArgumentException();
+    /** whether minCost, as updated since the last full pass, is the table a full pass computes now */
+    private boolean costMatchesFullPass() {
+        int rows = rows();
+        int cols = cols();
+        double[] incremental = minCost.clone();
+        costValid = false;
+        findSeam(new int[rows]);
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (incremental[i * stride + j] != minCost[i * stride + j]) {
+                    return false;
+                }
+            }
         }
-        int m;
-        if (seamLength == width) {
-            m = height;
-        } else {
-            m = width;
+        return true;
+    }
+
+    // unit testing: carve random pictures in random directions, checking after every removed seam
+    // that the incrementally updated DP table is the one a full pass computes, then check that pyramid
+    // mode with a band covering the whole picture finds optimal seams from the first one on;
+    // args: [seed [pictures]]
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 0;
+        int pictures = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        java.util.Random random = new java.util.Random(seed);
+        int checked = 0;
+        for (int n = 0; n < pictures; n++) {
+            int width = 1 + random.nextInt(40);
+            int height = 1 + random.nextInt(40);
+
+            // few distinct colors, so that many paths tie
+            int colors = 1 + random.nextInt(8);
+            Picture picture = new Picture(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    picture.setARGB(x, y, random.nextInt(colors) * 0x1F2F3F);
+                }
+            }
+
+            SeamCarver carver = new SeamCarver(picture);
+            while (carver.width() > 1 && carver.height() > 1) {
+                // mostly vertical seams, for the table to survive several removals in a row
+                int choice = random.nextInt(8);
+                if (choice == 0) {
+                    carver.removeHorizontalSeam(carver.findHorizontalSeam());
+                } else if (choice == 1) {
+                    carver.removeVerticalSeams(1 + random.nextInt(carver.width() - 1), random.nextInt(4 * carver.height()));
+                } else {
+                    carver.removeVerticalSeam(carver.findVerticalSeam());
+                }
+                if (carver.costValid) {
+                    checked++;
+                    if (!carver.costMatchesFullPass()) {
+                        System.out.printf("seed %d, picture %d: incremental DP table differs from a full pass%n", seed, n);
+                        return;
+                    }
+                }
+            }
         }
+        System.out.println(checked + " incremental updates match a full pass");
 
-        for (int i = 0; i < seamLength - 1; i++) {
-            if (Math.abs(seam[i] - seam[i + 1]) > 1) {
-                throw new IllegalArgumentException();
+        int pyramids = 0;
+        for (int n = 0; n < pictures / 10; n++) {
+            int width = PYRAMID_MIN_COLS + 1 + random.nextInt(3 * PYRAMID_MIN_COLS);
+            int height = PYRAMID_MIN_COLS + 1 + random.nextInt(3 * PYRAMID_MIN_COLS);
+            Picture picture = new Picture(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    picture.setARGB(x, y, random.nextInt(8) * 0x1F2F3F);
+                }
             }
-            if (seam[i] < 0 || seam[i] >= m) {
-                throw new IllegalArgumentException();
+            SeamCarver carver = new SeamCarver(picture);
+            SeamCarver exact = new SeamCarver(picture);
+            carver.setPyramidBand(Math.max(width, height));
+            for (int k = 0; k < 4; k++) {
+                // the first seam of a new carver, a second one from the table, then two turns
+                boolean vertical = k != 2;
+                boolean fromPyramid = k != 1;
+                int[] seam = vertical ? carver.findVerticalSeam() : carver.findHorizontalSeam();
+                int[] optimal = vertical ? exact.findVerticalSeam() : exact.findHorizontalSeam();
+                // a pyramid seam leaves no DP table behind, an exact one does
+                if (carver.costValid == fromPyramid
+                        || carver.seamEnergy(seam, vertical) != exact.seamEnergy(optimal, vertical)
+                        || DEBUG && (fromPyramid ? carver.lastSeamError() != 0 : !Double.isNaN(carver.lastSeamError()))) {
+                    System.out.printf("seed %d, pyramid picture %d, seam %d: not the expected optimal seam%n", seed, n, k);
+                    return;
+                }
+                if (vertical) {
+                    carver.removeVerticalSeam(seam);
+                    exact.removeVerticalSeam(seam);
+                } else {
+                    carver.removeHorizontalSeam(seam);
+                    exact.removeHorizontalSeam(seam);
+                }
+                pyramids += fromPyramid ? 1 : 0;
             }
         }
+        System.out.println(pyramids + " pyramid seams are optimal");
+    }
 
-        if (seam[seamLength - 1] < 0 || seam[seamLength - 1] >= m) {
-            throw new IllegalArgumentException();
+    /** total energy of seam, summed along it in the order the DP adds it up */
+    private double seamEnergy(int[] seam, boolean vertical) {
+        double total = 0;
+        for (int i = 0; i < seam.length; i++) {
+            total += vertical ? energy(seam[i], i) : energy(i, seam[i]);
         }
+        return total;
     }
 }
-
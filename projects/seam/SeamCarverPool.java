@@ -0,0 +1,171 @@
+import edu.princeton.cs.algs4.Picture;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carves many pictures to target sizes concurrently, e.g. thumbnails.
+ * A fixed number of workers take the jobs from a bounded queue; when it is full submit() blocks
+ * until a worker is done with a job, which slows submission down to the pace of the workers.
+ * Only the workers carve. Each keeps one SeamCarver.Buffers, grown to the largest picture it has
+ * seen, and builds its carvers on them: once the buffers are big enough a job allocates its carver,
+ * one seam array per direction and the result, and nothing per seam.
+ * The buffers go with the workers when close() stops them.
+ */
+public class SeamCarverPool implements AutoCloseable {
+
+    /** one picture to carve down to targetWidth x targetHeight */
+    public static final class Job {
+        private final Picture picture;
+        private final int targetWidth;
+        private final int targetHeight;
+
+        public Job(Picture picture, int targetWidth, int targetHeight) {
+            if (picture == null || targetWidth < 1 || targetWidth > picture.width()
+                    || targetHeight < 1 || targetHeight > picture.height()) {
+                throw new IllegalArgumentException();
+            }
+            this.picture = picture;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    /** one permit per job a worker is carving or the queue can hold */
+    private final Semaphore slots;
+
+    private final ThreadLocal<SeamCarver.Buffers> buffers = ThreadLocal.withInitial(SeamCarver.Buffers::new);
+
+    // a pool with one worker per processor
+    public SeamCarverPool() {
+        this(Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    // a pool of the given number of workers and at most queueCapacity jobs waiting for them
+    public SeamCarverPool(int workers, int queueCapacity) {
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        slots = new Semaphore(workers + queueCapacity);
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Runnable work = () -> {
+                        try {
+                            r.run();
+                        } finally {
+                            buffers.remove();
+                        }
+                    };
+                    Thread thread = new Thread(work, "seam-carver-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // carve picture down to targetWidth x targetHeight, as SeamCarver.carveToSize() does
+    public Future<Picture> submit(Picture picture, int targetWidth, int targetHeight) throws InterruptedException {
+        return submit(new Job(picture, targetWidth, targetHeight));
+    }
+
+    /**
+     * queue job, waiting while the queue is full;
+     * throws RejectedExecutionException once the pool is closed
+     */
+    public Future<Picture> submit(Job job) throws InterruptedException {
+        if (job == null) {
+            throw new IllegalArgumentException();
+        }
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("pool is closed");
+        }
+        slots.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    return carve(job);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed while waiting for a slot
+            slots.release();
+            throw e;
+        }
+    }
+
+    // submit every job, returning the futures in the same order
+    public List<Future<Picture>> submitAll(Collection<Job> jobs) throws InterruptedException {
+        List<Future<Picture>> futures = new ArrayList<>(jobs.size());
+        for (Job job : jobs) {
+            futures.add(submit(job));
+        }
+        return futures;
+    }
+
+    /** carve one job on the buffers of the current worker */
+    private Picture carve(Job job) {
+        SeamCarver carver = new SeamCarver(job.picture, buffers.get());
+        carver.carveToSize(job.targetWidth, job.targetHeight);
+        return carver.picture();
+    }
+
+    // finish the jobs already submitted, then stop the workers; if interrupted, cancel the jobs left
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // keep waiting for the jobs in the queue
+            }
+        } catch (InterruptedException e) {
+            for (Runnable job : executor.shutdownNow()) {
+                ((Future<?>) job).cancel(false);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // unit testing: carve args[1] copies of the picture args[0] to half its size with 1 worker, then
+    // with one per processor, checking the results against SeamCarver
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        Picture picture = new Picture(args[0]);
+        int jobs = Integer.parseInt(args[1]);
+        int targetWidth = Math.max(1, picture.width() / 2);
+        int targetHeight = Math.max(1, picture.height() / 2);
+        SeamCarver reference = new SeamCarver(picture);
+        reference.carveToSize(targetWidth, targetHeight);
+        Picture expected = reference.picture();
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int workers : new int[] {1, processors}) {
+            try (SeamCarverPool pool = new SeamCarverPool(workers, 4 * workers)) {
+                List<Job> batch = new ArrayList<>();
+                for (int k = 0; k < jobs; k++) {
+                    batch.add(new Job(picture, targetWidth, targetHeight));
+                }
+                long start = System.nanoTime();
+                boolean same = true;
+                for (Future<Picture> future : pool.submitAll(batch)) {
+                    same &= future.get().equals(expected);
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%d workers: %.1f pictures/s, %s as SeamCarver%n",
+                        workers, jobs / seconds, same ? "same" : "DIFFERENT");
+            }
+        }
+    }
+}
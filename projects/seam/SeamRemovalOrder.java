@@ -0,0 +1,118 @@
+import edu.princeton.cs.algs4.Picture;
+
+import java.util.Arrays;
+
+/**
+ * Carve a picture down to a minimum width once, remembering for every pixel of the original
+ * picture the iteration at which its vertical seam removed it. Any width between the minimum
+ * and the original one is then a single pass over the map, with no energy or DP at all:
+ * a row of the picture at width w keeps, in order, the pixels removed at iteration width - w or later,
+ * which is exactly what width - w calls of findVerticalSeam() and removeVerticalSeam() leave.
+ * Memory: one int per pixel for the map plus the original pixels.
+ */
+public class SeamRemovalOrder {
+
+    /** removed[y * width + x] is the iteration that removed pixel (x, y), KEPT if it never is */
+    private static final int KEPT = Integer.MAX_VALUE;
+
+    private final int width;
+    private final int height;
+    private final int minWidth;
+    private final int[] argb;
+    private final int[] removed;
+
+    // carve picture down to minWidth, recording the order in which the pixels go
+    public SeamRemovalOrder(Picture picture, int minWidth) {
+        if (picture == null || minWidth < 1 || minWidth > picture.width()) {
+            throw new IllegalArgumentException();
+        }
+        width = picture.width();
+        height = picture.height();
+        this.minWidth = minWidth;
+        argb = new int[width * height];
+        removed = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = picture.getARGB(x, y);
+            }
+        }
+        Arrays.fill(removed, KEPT);
+
+        // origin[y * width + x] is the original column of the pixel now at (x, y) in the carver
+        int[] origin = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                origin[y * width + x] = x;
+            }
+        }
+        SeamCarver carver = new SeamCarver(picture);
+        for (int k = 0; k < width - minWidth; k++) {
+            int[] seam = carver.findVerticalSeam();
+            int current = carver.width();
+            for (int y = 0; y < height; y++) {
+                int p = y * width + seam[y];
+                removed[y * width + origin[p]] = k;
+                System.arraycopy(origin, p + 1, origin, p, current - 1 - seam[y]);
+            }
+            carver.removeVerticalSeam(seam);
+        }
+    }
+
+    // width of the original picture
+    public int width() {
+        return width;
+    }
+
+    // smallest width pictureAtWidth() can produce
+    public int minWidth() {
+        return minWidth;
+    }
+
+    // the picture carved to width w, for w in [minWidth(), width()]
+    public Picture pictureAtWidth(int w) {
+        if (w < minWidth || w > width) {
+            throw new IllegalArgumentException();
+        }
+        int seams = width - w;
+        Picture picture = new Picture(w, height);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0, to = 0; x < width; x++) {
+                if (removed[row + x] >= seams) {
+                    picture.setARGB(to++, y, argb[row + x]);
+                }
+            }
+        }
+        return picture;
+    }
+
+    // unit testing: precompute args[0] down to args[1] columns and compare every width with SeamCarver
+    public static void main(String[] args) {
+        Picture picture = new Picture(args[0]);
+        int minWidth = Integer.parseInt(args[1]);
+        long start = System.nanoTime();
+        SeamRemovalOrder order = new SeamRemovalOrder(picture, minWidth);
+        System.out.printf("precomputed %d seams in %d ms%n",
+                picture.width() - minWidth, (System.nanoTime() - start) / 1000000);
+
+        SeamCarver carver = new SeamCarver(picture);
+        for (int w = picture.width(); w >= minWidth; w--) {
+            start = System.nanoTime();
+            Picture fast = order.pictureAtWidth(w);
+            long nanos = System.nanoTime() - start;
+            boolean same = true;
+            Picture slow = carver.picture();
+            for (int y = 0; y < fast.height() && same; y++) {
+                for (int x = 0; x < w; x++) {
+                    same &= fast.getARGB(x, y) == slow.getARGB(x, y);
+                }
+            }
+            if (!same || w == minWidth) {
+                System.out.printf("width %d: %s, %d us%n", w, same ? "same" : "DIFFERENT", nanos / 1000);
+            }
+            if (w > minWidth) {
+                carver.removeVerticalSeam(carver.findVerticalSeam());
+            }
+        }
+    }
+}
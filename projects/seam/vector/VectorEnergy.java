@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * EnergyKernel on the Vector API: the interior of each row goes DOUBLES.length() pixels at a time.
+ * The four neighbors are four unaligned loads of the color row and the rows above and below,
+ * the channels are unpacked lane-wise with shifts and masks, and the int sum of squares is
+ * widened to doubles for the sqrt. The int species is half as wide as the double one,
+ * so both have the same number of lanes. Borders and the tail of each row use the scalar loop.
+ * It lives in its own source root, outside the seam module, since it needs
+ * --add-modules jdk.incubator.vector to compile and to run: build it on top of the module with
+ * javac --add-modules jdk.incubator.vector -cp ../algs4.jar:<seam classes> vector/VectorEnergy.java
+ * EnergyKernel.load() only loads it by name when the module is present, so without it the
+ * scalar loop runs.
+ */
+final class VectorEnergy implements EnergyKernel {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    @Override
+    public void energy(int[] color, int stride, int rows, int cols, int fromRow, int toRow, double[] energy) {
+        int lanes = DOUBLES.length();
+        for (int r = fromRow; r < toRow; r++) {
+            int row = r * stride;
+            if (r == 0 || r == rows - 1) {
+                Arrays.fill(energy, row, row + cols, BORDER_ENERGY);
+                continue;
+            }
+            energy[row] = BORDER_ENERGY;
+            int c = 1;
+            for (; c + lanes <= cols - 1; c += lanes) {
+                int p = row + c;
+                IntVector squareGradient = squareGradient(
+                        IntVector.fromArray(INTS, color, p - 1), IntVector.fromArray(INTS, color, p + 1))
+                        .add(squareGradient(
+                        IntVector.fromArray(INTS, color, p - stride), IntVector.fromArray(INTS, color, p + stride)));
+                DoubleVector sum = (DoubleVector) squareGradient.convertShape(VectorOperators.I2D, DOUBLES, 0);
+                sum.lanewise(VectorOperators.SQRT).intoArray(energy, p);
+            }
+            EnergyKernel.Scalar.interior(color, stride, row, c, cols - 1, energy);
+            if (cols > 1) {
+                energy[row + cols - 1] = BORDER_ENERGY;
+            }
+        }
+    }
+
+    private static IntVector squareGradient(IntVector color1, IntVector color2) {
+        IntVector red = channel(color1, 16).sub(channel(color2, 16));
+        IntVector green = channel(color1, 8).sub(channel(color2, 8));
+        IntVector blue = channel(color1, 0).sub(channel(color2, 0));
+        return red.mul(red).add(green.mul(green)).add(blue.mul(blue));
+    }
+
+    private static IntVector channel(IntVector argb, int shift) {
+        return argb.lanewise(VectorOperators.ASHR, shift).and(0xFF);
+    }
+}